@@ -0,0 +1,591 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A crawl frontier that fetches the most valuable URLs first instead of in
+ * discovery order. URLs are ordered by link depth from the seed (shallower
+ * first), then by the number of pages linking to them (more first), then by
+ * how many URLs of the same host were already queued (fewer first), so that a
+ * single large site cannot use up the whole crawl budget.
+ *
+ * Only a bounded number of the best candidates are kept in memory. The rest
+ * are sorted and written to local files in runs of the same size, and the runs
+ * are merged back in when the in-memory head runs out, so the memory used by
+ * the frontier does not grow with the crawl and every spilled candidate is
+ * written and read about once. Unlike
+ * {@link CrawlFrontier}, crawl slots are handed out when a URL is polled, so
+ * the limited number of fetches go to the best URLs found so far.
+ *
+ * @see CrawlFrontier
+ */
+public class BestFirstCrawlFrontier extends CrawlFrontier {
+
+	/**
+	 * Initialize Logger
+	 */
+	private final static Logger log = LogManager.getRootLogger();
+
+	/** The default number of candidates kept in memory. */
+	public static final int DEFAULT_HEAD = 10000;
+
+	/** The most runs kept open before they are merged into one. */
+	public static final int MAX_RUNS = 32;
+
+	/** Orders candidates from most to least valuable. */
+	private static final Comparator<Candidate> ORDER = Comparator.comparingInt((Candidate c) -> c.depth)
+			.thenComparing(Comparator.comparingInt((Candidate c) -> c.inlinks).reversed())
+			.thenComparingInt(c -> c.hostRank)
+			.thenComparingLong(c -> c.sequence);
+
+	/** The best candidates, kept in memory. */
+	private final TreeSet<Candidate> head;
+
+	/** Candidates in the head by url, used to count additional in-links. */
+	private final HashMap<String, Candidate> headIndex;
+
+	/** Number of candidates queued per host so far. */
+	private final HashMap<String, Integer> hostCounts;
+
+	/** Link depth of polled urls that are being fetched. */
+	private final ConcurrentHashMap<String, Integer> depths;
+
+	/**
+	 * Link depth of fetched urls whose links have not been offered yet, only
+	 * the most recent ones since a page that is not parsed never offers links.
+	 */
+	private final LinkedHashMap<String, Integer> parents;
+
+	/** Maximum number of candidates kept in memory. */
+	private final int headSize;
+
+	/** The directory holding the runs of candidates that did not fit in memory. */
+	private final Path spill;
+
+	/** Candidates that did not fit in memory and are not written to a run yet. */
+	private final ArrayList<Candidate> buffer;
+
+	/** Runs that still have candidates, by their next candidate. */
+	private final PriorityQueue<Run> runs;
+
+	/** Number of candidates in the buffer and the runs. */
+	private long spilled;
+
+	/** Number of candidates queued so far, used to break ties. */
+	private long sequence;
+
+	/** Lock object guarding the head and spill file. */
+	private final Object lock;
+
+	/**
+	 * Creates a best-first frontier.
+	 *
+	 * @param max      the maximum number of URLs to crawl, at least 1
+	 * @param bloom    whether to remember seen URLs with a Bloom filter
+	 * @param headSize the number of candidates kept in memory
+	 * @throws IOException if unable to create the spill directory
+	 */
+	public BestFirstCrawlFrontier(int max, boolean bloom, int headSize) throws IOException {
+		super(max, bloom);
+		this.head = new TreeSet<>(ORDER);
+		this.headIndex = new HashMap<>();
+		this.hostCounts = new HashMap<>();
+		this.depths = new ConcurrentHashMap<>();
+		this.headSize = Math.max(1, headSize);
+		this.parents = new LinkedHashMap<>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+				return size() > BestFirstCrawlFrontier.this.headSize;
+			}
+		};
+		this.spill = Files.createTempDirectory("frontier");
+		this.spill.toFile().deleteOnExit();
+		this.buffer = new ArrayList<>();
+		this.runs = new PriorityQueue<>(Comparator.comparing((Run run) -> run.next, ORDER));
+		this.spilled = 0;
+		this.sequence = 0;
+		this.lock = new Object();
+	}
+
+	/**
+	 * Adds the seed URL to the frontier.
+	 *
+	 * @param url the normalized url
+	 * @return {@code true} if the url was queued
+	 */
+	@Override
+	public boolean offer(URL url) {
+		return !isFull() && markSeen(url) && add(url, 0);
+	}
+
+	@Override
+	public int offer(URL page, List<URL> links) {
+		Integer parent;
+		synchronized (lock) {
+			parent = parents.remove(page.toString());
+		}
+		if (parent == null) {
+			parent = depths.remove(page.toString());
+		}
+		int depth = parent == null ? 1 : parent + 1;
+		int queued = 0;
+
+		for (URL link : links) {
+			if (isFull()) {
+				break;
+			}
+			if (markSeen(link)) {
+				if (add(link, depth)) {
+					queued++;
+				}
+			} else {
+				countInlink(link);
+			}
+		}
+		return queued;
+	}
+
+	/**
+	 * Removes the most valuable URL and reserves a crawl slot for it.
+	 *
+	 * @return the next url, or {@code null} if none are waiting or the crawl
+	 *         limit has been reached
+	 */
+	@Override
+	public URL poll() {
+		synchronized (lock) {
+			if (head.isEmpty() && spilled > 0) {
+				refill();
+			}
+			if (head.isEmpty() || !reserve()) {
+				return null;
+			}
+			Candidate best = head.pollFirst();
+			headIndex.remove(best.url.toString());
+			depths.put(best.url.toString(), best.depth);
+			return best.url;
+		}
+	}
+
+	@Override
+	public boolean hasPending() {
+		synchronized (lock) {
+			return !isFull() && (!head.isEmpty() || spilled > 0);
+		}
+	}
+
+	/**
+	 * Forgets the url being fetched, keeping its link depth only until its links
+	 * are offered or newer pages push it out.
+	 *
+	 * @param url the fetched url
+	 */
+	@Override
+	public void done(URL url) {
+		Integer depth = depths.remove(url.toString());
+		if (depth != null) {
+			synchronized (lock) {
+				parents.put(url.toString(), depth);
+			}
+		}
+	}
+
+	@Override
+	protected void savePending(DataOutputStream out) throws IOException {
+		synchronized (lock) {
+			for (Candidate candidate : head) {
+				out.writeUTF(candidate.toString());
+			}
+			for (Candidate candidate : buffer) {
+				out.writeUTF(candidate.toString());
+			}
+			for (Run run : runs) {
+				// the run has already read past its next candidate
+				try (BufferedReader reader = Files.newBufferedReader(run.path, StandardCharsets.UTF_8)) {
+					for (long skipped = 1; skipped < run.read; skipped++) {
+						reader.readLine();
+					}
+					String line;
+					while ((line = reader.readLine()) != null) {
+						out.writeUTF(line);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public void restore(String entry) throws IOException {
+		Candidate candidate = Candidate.parse(entry);
+		synchronized (lock) {
+			if (candidate == null) {
+				// a url that was being fetched, fetch it again first
+				candidate = new Candidate(new URL(entry), 0, 0, 0, sequence);
+			}
+			hostCounts.merge(candidate.url.getHost().toLowerCase(), 1, Integer::sum);
+			sequence = Math.max(sequence, candidate.sequence + 1);
+			insert(candidate);
+		}
+	}
+
+	/**
+	 * Adds a new candidate.
+	 *
+	 * @param url   the url
+	 * @param depth the link depth of the url
+	 * @return {@code true} if the candidate was queued
+	 */
+	private boolean add(URL url, int depth) {
+		synchronized (lock) {
+			String host = url.getHost().toLowerCase();
+			int hostRank = hostCounts.merge(host, 1, Integer::sum) - 1;
+			insert(new Candidate(url, depth, 0, hostRank, sequence++));
+			return true;
+		}
+	}
+
+	/**
+	 * Adds a candidate to the head, spilling the least valuable candidate if the
+	 * head is full. Must be called while holding the lock.
+	 *
+	 * @param candidate the candidate
+	 */
+	private void insert(Candidate candidate) {
+		if (head.size() < headSize) {
+			addToHead(candidate);
+		} else if (ORDER.compare(candidate, head.last()) < 0) {
+			Candidate worst = head.pollLast();
+			headIndex.remove(worst.url.toString());
+			addToHead(candidate);
+			spill(worst);
+		} else {
+			spill(candidate);
+		}
+	}
+
+	/**
+	 * Adds a candidate to the in-memory head.
+	 *
+	 * @param candidate the candidate
+	 */
+	private void addToHead(Candidate candidate) {
+		head.add(candidate);
+		headIndex.put(candidate.url.toString(), candidate);
+	}
+
+	/**
+	 * Counts another link to a URL that is still waiting in memory.
+	 *
+	 * @param url the linked url
+	 */
+	private void countInlink(URL url) {
+		synchronized (lock) {
+			Candidate candidate = headIndex.get(url.toString());
+			if (candidate != null) {
+				head.remove(candidate);
+				candidate.inlinks++;
+				head.add(candidate);
+			}
+		}
+	}
+
+	/**
+	 * Moves the best spilled candidates back into the head, merging the runs.
+	 * Must be called while holding the lock.
+	 */
+	private void refill() {
+		if (!buffer.isEmpty()) {
+			writeRun();
+		}
+		while (head.size() < headSize && !runs.isEmpty()) {
+			Run run = runs.poll();
+			try {
+				addToHead(run.advance());
+				spilled--;
+			} catch (IOException e) {
+				log.warn("Unable to read crawl frontier run " + run.path + ", dropping the rest of it");
+				run.next = null;
+			}
+			if (run.next != null) {
+				runs.add(run);
+			} else {
+				closeRun(run);
+				recount();
+			}
+		}
+	}
+
+	/**
+	 * Adds a candidate to the buffer, writing the buffer as a run once it is as
+	 * large as the head. Must be called while holding the lock.
+	 *
+	 * @param candidate the candidate to spill
+	 */
+	private void spill(Candidate candidate) {
+		buffer.add(candidate);
+		spilled++;
+		if (buffer.size() >= headSize) {
+			writeRun();
+		}
+	}
+
+	/**
+	 * Sorts the buffer and writes it as a new run, merging the runs into one if
+	 * there are too many. The buffer is dropped if it cannot be written, so that
+	 * memory stays bounded. Must be called while holding the lock.
+	 */
+	private void writeRun() {
+		buffer.sort(ORDER);
+		Path path = null;
+		try {
+			path = Files.createTempFile(spill, "run", ".tsv");
+			path.toFile().deleteOnExit();
+			try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+				for (Candidate candidate : buffer) {
+					writer.write(candidate.toString());
+					writer.newLine();
+				}
+			}
+			runs.add(new Run(path, buffer.size()));
+		} catch (IOException e) {
+			log.warn("Unable to spill crawl frontier to " + spill + ", dropping " + buffer.size() + " urls");
+			spilled -= buffer.size();
+			deleteRun(path);
+		}
+		buffer.clear();
+
+		if (runs.size() > MAX_RUNS) {
+			mergeRuns();
+		}
+	}
+
+	/**
+	 * Merges every run into a single run, so that only a few files are open at
+	 * once. Must be called while holding the lock.
+	 */
+	private void mergeRuns() {
+		Path path = null;
+		try {
+			path = Files.createTempFile(spill, "run", ".tsv");
+			path.toFile().deleteOnExit();
+			long size = 0;
+			try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+				while (!runs.isEmpty()) {
+					Run run = runs.poll();
+					writer.write(run.advance().toString());
+					writer.newLine();
+					size++;
+					if (run.next != null) {
+						runs.add(run);
+					} else {
+						closeRun(run);
+					}
+				}
+			}
+			runs.add(new Run(path, size));
+		} catch (IOException e) {
+			log.warn("Unable to merge crawl frontier runs in " + spill);
+			deleteRun(path);
+			recount();
+		}
+	}
+
+	/**
+	 * Counts the spilled candidates again, after some of them were dropped. Must
+	 * be called while holding the lock.
+	 */
+	private void recount() {
+		spilled = buffer.size();
+		for (Run run : runs) {
+			spilled += run.remaining;
+		}
+	}
+
+	/**
+	 * Closes a run and deletes its file.
+	 *
+	 * @param run the run
+	 */
+	private void closeRun(Run run) {
+		try {
+			run.reader.close();
+		} catch (IOException e) {
+			log.warn("Unable to close crawl frontier run " + run.path);
+		}
+		deleteRun(run.path);
+	}
+
+	/**
+	 * Deletes the file of a run.
+	 *
+	 * @param path the file, may be {@code null}
+	 */
+	private void deleteRun(Path path) {
+		try {
+			if (path != null) {
+				Files.deleteIfExists(path);
+			}
+		} catch (IOException e) {
+			log.warn("Unable to delete crawl frontier run " + path);
+		}
+	}
+
+	/**
+	 * Deletes the spilled candidates. Any candidates still waiting are discarded.
+	 */
+	public void close() {
+		synchronized (lock) {
+			for (Run run : runs) {
+				closeRun(run);
+			}
+			try {
+				Files.deleteIfExists(spill);
+			} catch (IOException e) {
+				log.warn("Unable to delete crawl frontier spill directory " + spill);
+			}
+			runs.clear();
+			buffer.clear();
+			head.clear();
+			headIndex.clear();
+			parents.clear();
+			spilled = 0;
+		}
+	}
+
+	/**
+	 * A file of spilled candidates, sorted from most to least valuable, along
+	 * with how far it has been read.
+	 */
+	private static class Run {
+
+		/** The file. */
+		private final Path path;
+
+		/** Reads the file. */
+		private final BufferedReader reader;
+
+		/** The next candidate, or {@code null} if the run is empty. */
+		private Candidate next;
+
+		/** Number of lines read from the file, including the next candidate. */
+		private long read;
+
+		/** Number of candidates left in the run, including the next candidate. */
+		private long remaining;
+
+		/**
+		 * Opens a run and reads its first candidate.
+		 *
+		 * @param path the file
+		 * @param size the number of candidates in the file
+		 * @throws IOException if unable to read the file
+		 */
+		public Run(Path path, long size) throws IOException {
+			this.path = path;
+			this.reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+			this.read = 0;
+			this.remaining = size + 1;
+			advance();
+		}
+
+		/**
+		 * Returns the next candidate and reads the one after it.
+		 *
+		 * @return the next candidate
+		 * @throws IOException if unable to read the file
+		 */
+		public Candidate advance() throws IOException {
+			Candidate current = next;
+			next = null;
+			remaining--;
+			String line;
+			while (next == null && (line = reader.readLine()) != null) {
+				read++;
+				next = Candidate.parse(line);
+			}
+			if (next == null) {
+				remaining = 0;
+			}
+			return current;
+		}
+	}
+
+	/**
+	 * A URL waiting to be fetched along with what makes it valuable.
+	 */
+	private static class Candidate {
+
+		/** The url. */
+		private final URL url;
+
+		/** Link depth from the seed url. */
+		private final int depth;
+
+		/** Number of links to this url seen while it was waiting. */
+		private int inlinks;
+
+		/** Number of urls of the same host queued before this one. */
+		private final int hostRank;
+
+		/** Order this candidate was queued in. */
+		private final long sequence;
+
+		/**
+		 * Creates a candidate.
+		 *
+		 * @param url      the url
+		 * @param depth    link depth from the seed url
+		 * @param inlinks  number of links to this url seen so far
+		 * @param hostRank number of urls of the same host queued before this one
+		 * @param sequence order this candidate was queued in
+		 */
+		public Candidate(URL url, int depth, int inlinks, int hostRank, long sequence) {
+			this.url = url;
+			this.depth = depth;
+			this.inlinks = inlinks;
+			this.hostRank = hostRank;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Parses a candidate written by {@link #toString()}.
+		 *
+		 * @param line the line from the spill file
+		 * @return the candidate, or {@code null} if the line is not valid
+		 */
+		public static Candidate parse(String line) {
+			String[] parts = line.split("\t", 5);
+			try {
+				return new Candidate(new URL(parts[4]), Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+						Integer.parseInt(parts[2]), Long.parseLong(parts[3]));
+			} catch (MalformedURLException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+				return null;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return depth + "\t" + inlinks + "\t" + hostRank + "\t" + sequence + "\t" + url;
+		}
+	}
+}
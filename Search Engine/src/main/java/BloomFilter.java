@@ -0,0 +1,131 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe Bloom filter over 64-bit fingerprints. Uses a fixed amount of
+ * memory no matter how many fingerprints are added, at the cost of sometimes
+ * reporting a fingerprint as already added when it was not.
+ *
+ * @see CrawlFrontier
+ */
+public class BloomFilter {
+
+	/** The bits of the filter, packed into longs. */
+	private final AtomicLongArray bits;
+
+	/** The number of bits in the filter. */
+	private final long size;
+
+	/** The number of bits set for each fingerprint. */
+	private final int hashes;
+
+	/**
+	 * Striped locks so that checking and setting the bits of one fingerprint is
+	 * atomic, without a single lock for the whole filter.
+	 */
+	private final Object[] locks;
+
+	/**
+	 * Creates a Bloom filter sized for the expected number of fingerprints and
+	 * the desired false positive rate.
+	 *
+	 * @param expected      the expected number of fingerprints
+	 * @param falsePositive the desired false positive rate, between 0 and 1
+	 */
+	public BloomFilter(long expected, double falsePositive) {
+		long n = Math.max(1, expected);
+		double ln2 = Math.log(2);
+		long m = (long) Math.ceil(-n * Math.log(falsePositive) / (ln2 * ln2));
+
+		this.size = Math.max(64, m);
+		this.hashes = (int) Math.max(1, Math.round((double) size / n * ln2));
+		this.bits = new AtomicLongArray((int) ((size + 63) / 64));
+		this.locks = new Object[64];
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * Adds the fingerprint to the filter.
+	 *
+	 * @param fingerprint the fingerprint to add
+	 * @return {@code true} if the fingerprint was (probably) not in the filter
+	 *         before, {@code false} if it was definitely or falsely present
+	 */
+	public boolean add(long fingerprint) {
+		int first = (int) fingerprint;
+		int second = (int) (fingerprint >>> 32);
+
+		synchronized (locks[(int) (fingerprint & (locks.length - 1))]) {
+			boolean added = false;
+			for (int i = 0; i < hashes; i++) {
+				long bit = Math.floorMod(first + (long) i * second, size);
+				int index = (int) (bit >>> 6);
+				long mask = 1L << bit;
+				long word = bits.get(index);
+				if ((word & mask) == 0) {
+					bits.getAndUpdate(index, value -> value | mask);
+					added = true;
+				}
+			}
+			return added;
+		}
+	}
+
+	/**
+	 * Returns whether the fingerprint may have been added.
+	 *
+	 * @param fingerprint the fingerprint to check
+	 * @return {@code false} if the fingerprint was definitely never added
+	 */
+	public boolean mightContain(long fingerprint) {
+		int first = (int) fingerprint;
+		int second = (int) (fingerprint >>> 32);
+
+		for (int i = 0; i < hashes; i++) {
+			long bit = Math.floorMod(first + (long) i * second, size);
+			if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the bits of the filter.
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException if unable to write to the stream
+	 */
+	public void save(DataOutputStream out) throws IOException {
+		out.writeLong(size);
+		out.writeInt(hashes);
+		for (int i = 0; i < bits.length(); i++) {
+			out.writeLong(bits.get(i));
+		}
+	}
+
+	/**
+	 * Replaces the bits of the filter with bits written by
+	 * {@link #save(DataOutputStream)}. The saved filter must have been sized
+	 * for the same number of fingerprints and false positive rate.
+	 *
+	 * @param in the stream to read from
+	 * @throws IOException if unable to read the stream or the saved filter has a
+	 *                     different size
+	 */
+	public void load(DataInputStream in) throws IOException {
+		long savedSize = in.readLong();
+		int savedHashes = in.readInt();
+		if (savedSize != size || savedHashes != hashes) {
+			throw new IOException("Saved Bloom filter has " + savedSize + " bits and " + savedHashes
+					+ " hashes, expected " + size + " bits and " + hashes + " hashes");
+		}
+		for (int i = 0; i < bits.length(); i++) {
+			bits.set(i, in.readLong());
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Scores a location with Okapi BM25. A stem weighs more the fewer locations it
+ * is found in, matches count for less the more there already are, and long
+ * locations are scored lower than short ones with the same matches.
+ *
+ * @see Scorer#BM25
+ */
+public class Bm25Scorer implements Scorer {
+
+	/**
+	 * The default saturation of matches
+	 */
+	public static final double DEFAULT_K1 = 1.2;
+
+	/**
+	 * The default weight of the length of a location
+	 */
+	public static final double DEFAULT_B = 0.75;
+
+	/**
+	 * How quickly more matches stop raising the score
+	 */
+	private final double k1;
+
+	/**
+	 * How much the length of a location lowers its score, from 0 to 1
+	 */
+	private final double b;
+
+	/**
+	 * Creates a scorer with the default parameters
+	 */
+	public Bm25Scorer() {
+		this(DEFAULT_K1, DEFAULT_B);
+	}
+
+	/**
+	 * Creates a scorer
+	 *
+	 * @param k1 how quickly more matches stop raising the score
+	 * @param b  how much the length of a location lowers its score, from 0 to 1
+	 */
+	public Bm25Scorer(double k1, double b) {
+		this.k1 = Math.max(0, k1);
+		this.b = Math.max(0, Math.min(1, b));
+	}
+
+	@Override
+	public String getName() {
+		return "bm25";
+	}
+
+	@Override
+	public double weight(int frequency, int documents) {
+		// never negative, even for a stem found in most locations
+		return Math.log(1 + (documents - frequency + 0.5) / (frequency + 0.5));
+	}
+
+	@Override
+	public double score(int matches, int length, double averageLength) {
+		double norm = averageLength > 0 ? 1 - b + b * length / averageLength : 1;
+		return matches * (k1 + 1) / (matches + k1 * norm);
+	}
+
+	@Override
+	public double total(double sum, int length) {
+		return sum;
+	}
+
+	@Override
+	public double bound(int matches, int length) {
+		// the score is highest for a location much shorter than the average
+		return matches * (k1 + 1) / (matches + k1 * (1 - b));
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof Bm25Scorer)) {
+			return false;
+		}
+		Bm25Scorer scorer = (Bm25Scorer) other;
+		return k1 == scorer.k1 && b == scorer.b;
+	}
+
+	@Override
+	public int hashCode() {
+		return Double.hashCode(k1) * 31 + Double.hashCode(b);
+	}
+
+	@Override
+	public String toString() {
+		return getName() + "(k1=" + k1 + ", b=" + b + ")";
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * Scores a location by the number of matches divided by the number of words in
+ * it. Every stem weighs the same, so common stems count as much as rare ones.
+ *
+ * @see Scorer#COUNT
+ */
+public class CountScorer implements Scorer {
+
+	@Override
+	public String getName() {
+		return "count";
+	}
+
+	@Override
+	public double weight(int frequency, int documents) {
+		return 1;
+	}
+
+	@Override
+	public double score(int matches, int length, double averageLength) {
+		// sums of whole numbers are exact, so the score is the same in any order
+		return matches;
+	}
+
+	@Override
+	public double total(double sum, int length) {
+		return sum / length;
+	}
+
+	@Override
+	public double bound(int matches, int length) {
+		return (double) matches / length;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof CountScorer;
+	}
+
+	@Override
+	public int hashCode() {
+		return CountScorer.class.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
@@ -0,0 +1,262 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Periodically saves the state of a web crawl to a local directory so that a
+ * crawl interrupted by a crash or redeploy can be resumed without fetching or
+ * indexing the same pages again.
+ *
+ * A checkpoint is a state file holding the frontier (admitted count, seen URLs
+ * and URLs waiting to be fetched) and the URLs being fetched at the time, plus
+ * one index segment per checkpoint holding the pages indexed since the one
+ * before. The segment is written first and the state file is replaced
+ * atomically afterwards, so a crash while saving leaves the previous checkpoint
+ * intact.
+ *
+ * Polling the frontier, offering links to it and indexing a page each hold the
+ * read lock, and saving holds the write lock, so every admitted URL is either
+ * waiting, being fetched or indexed in a segment when a checkpoint is taken.
+ *
+ * @see WebCrawler
+ * @see CrawlFrontier
+ */
+public class CrawlCheckpoint {
+
+	/**
+	 * Initialize Logger
+	 */
+	private final static Logger log = LogManager.getRootLogger();
+
+	/** The default number of indexed pages between checkpoints. */
+	public static final int DEFAULT_INTERVAL = 100;
+
+	/** Name of the state file in the checkpoint directory. */
+	private static final String STATE = "crawl.state";
+
+	/** Identifies the format of the state file. */
+	private static final int VERSION = 1;
+
+	/** The directory checkpoints are saved to. */
+	private final Path directory;
+
+	/** The frontier of the crawl. */
+	private final CrawlFrontier frontier;
+
+	/** Number of indexed pages between checkpoints. */
+	private final int interval;
+
+	/**
+	 * Keeps the crawl from changing the frontier or index while saving. Unlike
+	 * {@link SimpleReadWriteLock}, new readers wait behind a waiting writer, so a
+	 * busy crawl cannot keep a checkpoint from ever being taken.
+	 */
+	private final ReentrantReadWriteLock lock;
+
+	/** URLs taken from the frontier that have not been indexed yet. */
+	private final Set<String> inFlight;
+
+	/** Number of pages indexed since the crawl started or resumed. */
+	private final AtomicInteger indexed;
+
+	/** Pages indexed since the last checkpoint. */
+	private ThreadSafeInvertedIndex delta;
+
+	/** Number of index segments saved so far. */
+	private int segments;
+
+	/**
+	 * Creates a checkpoint for the crawl of the given frontier.
+	 *
+	 * @param directory the directory to save checkpoints to
+	 * @param frontier  the frontier of the crawl
+	 * @param interval  the number of indexed pages between checkpoints
+	 */
+	public CrawlCheckpoint(Path directory, CrawlFrontier frontier, int interval) {
+		this.directory = directory;
+		this.frontier = frontier;
+		this.interval = Math.max(1, interval);
+		this.lock = new ReentrantReadWriteLock();
+		this.inFlight = ConcurrentHashMap.newKeySet();
+		this.indexed = new AtomicInteger(0);
+		this.delta = new ThreadSafeInvertedIndex();
+		this.segments = 0;
+	}
+
+	/**
+	 * Restores the frontier and index from the last checkpoint. URLs that were
+	 * being fetched when it was taken are queued to be fetched again.
+	 *
+	 * @param index the empty index to restore the indexed pages into
+	 * @return {@code true} if a checkpoint was restored, {@code false} if there
+	 *         was none
+	 * @throws IOException if unable to read the checkpoint
+	 */
+	public boolean resume(InvertedIndex index) throws IOException {
+		lock.writeLock().lock();
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(directory.resolve(STATE))))) {
+			if (in.readInt() != VERSION) {
+				throw new IOException("Unsupported crawl state in " + directory);
+			}
+			int saved = in.readInt();
+			frontier.load(in);
+			int fetching = in.readInt();
+			for (int i = 0; i < fetching; i++) {
+				frontier.restore(in.readUTF());
+			}
+
+			for (int i = 0; i < saved; i++) {
+				index.merge(InvertedIndex.fromSegment(segment(i)));
+			}
+			segments = saved;
+			log.info("Resumed crawl from " + directory + " with " + frontier.size() + " urls admitted");
+			return true;
+		} catch (NoSuchFileException e) {
+			return false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes any previous checkpoint, so that a crawl started from scratch is
+	 * not mixed up with an older one if it is resumed before its first
+	 * checkpoint.
+	 *
+	 * @throws IOException if unable to remove the state file
+	 */
+	public void clear() throws IOException {
+		Files.deleteIfExists(directory.resolve(STATE));
+	}
+
+	/**
+	 * Takes the next URL from the frontier, remembering it until it has been
+	 * indexed.
+	 *
+	 * @return the next url, or {@code null} if none are waiting
+	 * @see CrawlFrontier#poll()
+	 */
+	public URL poll() {
+		lock.readLock().lock();
+		try {
+			URL url = frontier.poll();
+			if (url != null) {
+				inFlight.add(url.toString());
+			}
+			return url;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Offers the links found on a page to the frontier.
+	 *
+	 * @param page  the page the links were found on
+	 * @param links the normalized links found on the page
+	 * @return the number of links that were queued
+	 * @see CrawlFrontier#offer(URL, List)
+	 */
+	public int offer(URL page, List<URL> links) {
+		lock.readLock().lock();
+		try {
+			return frontier.offer(page, links);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds a fetched page to the index, saving a checkpoint every so many pages.
+	 * Must be called after the links of the page were offered.
+	 *
+	 * @param url   the url taken from {@link #poll()}
+	 * @param local the index of the page, or {@code null} if it could not be
+	 *              fetched
+	 * @param index the index of the crawl
+	 */
+	public void complete(URL url, InvertedIndex local, InvertedIndex index) {
+		lock.readLock().lock();
+		try {
+			if (local != null) {
+				index.merge(local);
+				delta.merge(local);
+			}
+			inFlight.remove(url.toString());
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		if (indexed.incrementAndGet() % interval == 0) {
+			try {
+				save();
+			} catch (IOException e) {
+				log.warn("Unable to save crawl checkpoint to " + directory + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Saves a checkpoint, pausing the crawl until it is written.
+	 *
+	 * @throws IOException if unable to write the checkpoint
+	 */
+	public void save() throws IOException {
+		lock.writeLock().lock();
+		try {
+			Files.createDirectories(directory);
+			int saved = segments;
+			if (delta.size() > 0) {
+				delta.toSegment(segment(saved));
+				saved++;
+			}
+
+			Path temp = directory.resolve(STATE + ".tmp");
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(VERSION);
+				out.writeInt(saved);
+				frontier.save(out);
+				String[] fetching = inFlight.toArray(new String[0]);
+				out.writeInt(fetching.length);
+				for (String url : fetching) {
+					out.writeUTF(url);
+				}
+			}
+			Files.move(temp, directory.resolve(STATE), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+
+			segments = saved;
+			delta = new ThreadSafeInvertedIndex();
+			log.debug("Saved crawl checkpoint to " + directory);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the path of an index segment.
+	 *
+	 * @param number the number of the segment
+	 * @return the path of the segment file
+	 */
+	private Path segment(int number) {
+		return directory.resolve(String.format("segment-%05d.tsv", number));
+	}
+}
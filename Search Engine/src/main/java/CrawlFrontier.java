@@ -0,0 +1,279 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe frontier of a web crawl. Remembers which URLs have been seen by a
+ * 64-bit fingerprint of their normalized string (never by {@link URL#hashCode()},
+ * which may resolve the host), and queues the URLs that still need to be
+ * fetched. Checking whether a URL is new, reserving one of the limited crawl
+ * slots and queueing it happen atomically in {@link #offer(URL)}, without a
+ * global lock.
+ *
+ * @see WebCrawler
+ */
+public class CrawlFrontier {
+
+	/** Fingerprints of the URLs seen so far, or {@code null} if using a filter. */
+	private final Set<Long> seen;
+
+	/** Bloom filter of the URLs seen so far, or {@code null} if using a set. */
+	private final BloomFilter filter;
+
+	/** URLs waiting to be fetched. */
+	private final ConcurrentLinkedQueue<URL> pending;
+
+	/** Number of URLs admitted to the crawl so far. */
+	private final AtomicInteger admitted;
+
+	/** Maximum number of URLs to admit (including the seed URL). */
+	private final int max;
+
+	/**
+	 * Creates a frontier that admits at most the given number of URLs and
+	 * remembers seen URLs exactly.
+	 *
+	 * @param max the maximum number of URLs to crawl, at least 1
+	 */
+	public CrawlFrontier(int max) {
+		this(max, false);
+	}
+
+	/**
+	 * Creates a frontier that admits at most the given number of URLs. If
+	 * requested, seen URLs are remembered with a fixed-size Bloom filter instead
+	 * of a set, which may skip a small fraction of new URLs as already seen.
+	 *
+	 * @param max   the maximum number of URLs to crawl, at least 1
+	 * @param bloom whether to remember seen URLs with a Bloom filter
+	 */
+	public CrawlFrontier(int max, boolean bloom) {
+		this.max = Math.max(1, max);
+		this.seen = bloom ? null : ConcurrentHashMap.newKeySet();
+		this.filter = bloom ? new BloomFilter(this.max * 2L, 0.001) : null;
+		this.pending = new ConcurrentLinkedQueue<>();
+		this.admitted = new AtomicInteger(0);
+	}
+
+	/**
+	 * Adds the URL to the frontier if it has not been seen before and the crawl
+	 * limit has not been reached.
+	 *
+	 * @param url the normalized url
+	 * @return {@code true} if the url was queued and should be fetched
+	 */
+	public boolean offer(URL url) {
+		if (isFull() || !markSeen(url)) {
+			return false;
+		}
+		if (!reserve()) {
+			return false;
+		}
+		enqueue(url);
+		return true;
+	}
+
+	/**
+	 * Offers every link found on a fetched page, stopping early once the crawl
+	 * limit has been reached.
+	 *
+	 * @param page  the page the links were found on
+	 * @param links the normalized links found on the page
+	 * @return the number of links that were queued
+	 */
+	public int offer(URL page, List<URL> links) {
+		int queued = 0;
+		for (URL link : links) {
+			if (isFull()) {
+				break;
+			}
+			if (offer(link)) {
+				queued++;
+			}
+		}
+		return queued;
+	}
+
+	/**
+	 * Reserves one of the limited crawl slots.
+	 *
+	 * @return {@code true} if a slot was reserved, {@code false} if the crawl
+	 *         limit has been reached
+	 */
+	protected boolean reserve() {
+		int count;
+		do {
+			count = admitted.get();
+			if (count >= max) {
+				return false;
+			}
+		} while (!admitted.compareAndSet(count, count + 1));
+		return true;
+	}
+
+	/**
+	 * Queues a newly admitted URL to be fetched.
+	 *
+	 * @param url the admitted url
+	 */
+	protected void enqueue(URL url) {
+		pending.add(url);
+	}
+
+	/**
+	 * Removes the next URL to fetch.
+	 *
+	 * @return the next url, or {@code null} if none are waiting
+	 */
+	public URL poll() {
+		return pending.poll();
+	}
+
+	/**
+	 * Returns whether there may be URLs waiting to be fetched.
+	 *
+	 * @return {@code true} if {@link #poll()} may return a url
+	 */
+	public boolean hasPending() {
+		return !pending.isEmpty();
+	}
+
+	/**
+	 * Called once the URL returned by {@link #poll()} has been fetched (whether
+	 * or not the fetch succeeded).
+	 *
+	 * @param url the fetched url
+	 */
+	public void done(URL url) {
+		// nothing to track for a plain first-in first-out frontier
+	}
+
+	/**
+	 * Returns the number of URLs admitted to the crawl so far.
+	 *
+	 * @return the number of admitted urls
+	 */
+	public int size() {
+		return admitted.get();
+	}
+
+	/**
+	 * Returns whether the crawl limit has been reached.
+	 *
+	 * @return {@code true} if no more urls will be admitted
+	 */
+	public boolean isFull() {
+		return admitted.get() >= max;
+	}
+
+	/**
+	 * Writes the state of the frontier: the number of admitted URLs, the seen
+	 * URLs and the URLs waiting to be fetched. The crawl must not change the
+	 * frontier while it is being saved.
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException if unable to write to the stream
+	 */
+	public void save(DataOutputStream out) throws IOException {
+		out.writeInt(admitted.get());
+		out.writeBoolean(filter != null);
+		if (filter != null) {
+			filter.save(out);
+		} else {
+			Long[] fingerprints = seen.toArray(new Long[0]);
+			out.writeInt(fingerprints.length);
+			for (Long fingerprint : fingerprints) {
+				out.writeLong(fingerprint);
+			}
+		}
+		savePending(out);
+		out.writeUTF("");
+	}
+
+	/**
+	 * Writes one entry for every URL waiting to be fetched, to be read back by
+	 * {@link #restore(String)}.
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException if unable to write to the stream
+	 */
+	protected void savePending(DataOutputStream out) throws IOException {
+		for (URL url : pending) {
+			out.writeUTF(url.toString());
+		}
+	}
+
+	/**
+	 * Restores the state written by {@link #save(DataOutputStream)} into an
+	 * empty frontier created with the same options.
+	 *
+	 * @param in the stream to read from
+	 * @throws IOException if unable to read the stream or it was saved with
+	 *                     different options
+	 */
+	public void load(DataInputStream in) throws IOException {
+		admitted.set(in.readInt());
+		if (in.readBoolean() != (filter != null)) {
+			throw new IOException("Crawl state was saved " + (filter != null ? "without" : "with") + " -bloom");
+		}
+		if (filter != null) {
+			filter.load(in);
+		} else {
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				seen.add(in.readLong());
+			}
+		}
+		for (String entry = in.readUTF(); !entry.isEmpty(); entry = in.readUTF()) {
+			restore(entry);
+		}
+	}
+
+	/**
+	 * Queues a URL again without checking or reserving anything, either an entry
+	 * written by {@link #savePending(DataOutputStream)} or a plain url that was
+	 * being fetched when the state was saved.
+	 *
+	 * @param entry the saved entry
+	 * @throws IOException if the entry is not valid
+	 */
+	public void restore(String entry) throws IOException {
+		enqueue(new URL(entry));
+	}
+
+	/**
+	 * Records the URL as seen.
+	 *
+	 * @param url the normalized url
+	 * @return {@code true} if the url had not been seen before
+	 */
+	protected boolean markSeen(URL url) {
+		long fingerprint = fingerprint(url.toString());
+		return seen != null ? seen.add(fingerprint) : filter.add(fingerprint);
+	}
+
+	/**
+	 * Returns a 64-bit fingerprint of the text (FNV-1a followed by a final
+	 * mixing step).
+	 *
+	 * @param text the text to fingerprint
+	 * @return the fingerprint
+	 */
+	public static long fingerprint(String text) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < text.length(); i++) {
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
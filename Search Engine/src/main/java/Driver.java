@@ -1,10 +1,14 @@
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletHandler;
@@ -38,11 +42,17 @@ public class Driver {
 
 		int threads = 0;
 		WorkQueue queue = null;
+		WorkQueue fetchQueue = null;
 
 		WebCrawler crawler = null;
+		Server server = null;
+		IndexWatcher watcher = null;
+		LoggedInvertedIndex loggedIndex = null;
+		QueryCache cache = null;
 
 		// multithreading
-		if (argument.hasFlag("-threads") || argument.hasFlag("-url")) {
+		if (argument.hasFlag("-threads") || argument.hasFlag("-url") || argument.hasFlag("-watch")
+				|| argument.hasFlag("-wal") || argument.hasFlag("-cache")) {
 			try {
 				threads = argument.getInteger("-threads", 5);
 			} catch (Exception e) {
@@ -54,8 +64,27 @@ public class Driver {
 			// initalize all the instances here
 			queue = new WorkQueue(threads);
 
-			ThreadSafeInvertedIndex threadsafeIndex = new ThreadSafeInvertedIndex();
+			ThreadSafeInvertedIndex threadsafeIndex;
+			if (argument.hasFlag("-wal")) {
+				// log every change so a restart recovers the index instead of rebuilding it
+				Path directory = argument.getPath("-wal", Path.of("index-wal"));
+				try {
+					loggedIndex = LoggedInvertedIndex.open(directory);
+				} catch (IOException e) {
+					System.out.println("Unable to open the index log in " + directory + ": " + e.getMessage());
+					queue.shutdown();
+					return;
+				}
+				threadsafeIndex = loggedIndex;
+			} else {
+				threadsafeIndex = new ThreadSafeInvertedIndex();
+			}
 			index = threadsafeIndex;
+			if (argument.hasFlag("-cache")) {
+				// answer repeated searches without searching the index again
+				cache = new QueryCache(argument.getInteger("-cache", QueryCache.DEFAULT_SIZE));
+				threadsafeIndex.setCache(cache);
+			}
 			adder = new MultiThreadIndexAdder(threadsafeIndex, queue);
 			queryParser = new MultiThreadQueryFileParser(threadsafeIndex, queue);
 
@@ -66,12 +95,145 @@ public class Driver {
 				if (argument.hasFlag("-max")) {
 					total = argument.getInteger("-max", 1);
 				}
-				crawler = new WebCrawler(threadsafeIndex, queue, url, total);
+				if (argument.hasFlag("-fetchers")) {
+					// fetching is network bound, so use many more threads than cores
+					int fetchers = argument.getInteger("-fetchers", 64);
+					fetchQueue = new WorkQueue(fetchers <= 0 ? 64 : fetchers);
+				}
+				// a bloom filter keeps the seen urls in fixed memory for huge crawls
+				boolean bloom = argument.hasFlag("-bloom");
+				CrawlFrontier frontier = null;
+				if (argument.hasFlag("-bestfirst")) {
+					// shallow and well linked pages first, keeping only the best candidates in memory
+					int head = argument.getInteger("-bestfirst", BestFirstCrawlFrontier.DEFAULT_HEAD);
+					try {
+						frontier = new BestFirstCrawlFrontier(total, bloom, head);
+						if (argument.hasFlag("-delay") || argument.hasFlag("-perhost")) {
+							// the best-first order has no per host queues to space out
+							System.out.println("-delay and -perhost are ignored with -bestfirst");
+						}
+					} catch (IOException e) {
+						System.out.println("Unable to create the best-first frontier, crawling in discovery order");
+					}
+				}
+				if (frontier == null && (argument.hasFlag("-delay") || argument.hasFlag("-perhost"))) {
+					// per host queues, spreading the crawl across hosts
+					int delay = argument.getInteger("-delay", PoliteCrawlFrontier.DEFAULT_DELAY);
+					int perHost = argument.getInteger("-perhost", PoliteCrawlFrontier.DEFAULT_PER_HOST);
+					frontier = new PoliteCrawlFrontier(total, bloom, delay, perHost);
+				}
+				if (frontier == null) {
+					frontier = new CrawlFrontier(total, bloom);
+				}
+				crawler = new WebCrawler(threadsafeIndex, queue, fetchQueue == null ? queue : fetchQueue, frontier);
+				if (argument.hasFlag("-maxbytes")) {
+					int maxBytes = argument.getInteger("-maxbytes", -1);
+					if (maxBytes > 0) {
+						crawler.setMaxBytes(maxBytes);
+					}
+				}
+				CrawlCheckpoint checkpoint = null;
+				if (argument.hasFlag("-checkpoint") || argument.hasFlag("-resume")) {
+					// save the crawl every so many pages so it can be resumed after a crash
+					Path directory = argument.getPath("-checkpoint", Path.of("checkpoint"));
+					checkpoint = new CrawlCheckpoint(directory, frontier, CrawlCheckpoint.DEFAULT_INTERVAL);
+					try {
+						if (argument.hasFlag("-resume")) {
+							if (!checkpoint.resume(threadsafeIndex)) {
+								System.out.println("No checkpoint found in " + directory + ", starting a new crawl");
+							}
+						} else {
+							checkpoint.clear();
+						}
+					} catch (IOException e) {
+						System.out.println("Unable to resume the crawl from " + directory + ": " + e.getMessage());
+						queue.shutdown();
+						if (fetchQueue != null) {
+							fetchQueue.shutdown();
+						}
+						return;
+					}
+					crawler.setCheckpoint(checkpoint);
+				}
+				UrlCanonicalizer canonicalizer = null;
+				if (argument.hasFlag("-canonical")) {
+					// fetch urls that only differ in spelling once, with optional extra rules
+					Path rules = argument.getPath("-canonical");
+					try {
+						canonicalizer = rules == null ? new UrlCanonicalizer() : UrlCanonicalizer.load(rules);
+					} catch (IOException e) {
+						System.out.println("Unable to read url rules from " + rules + ", using the default rules");
+						canonicalizer = new UrlCanonicalizer();
+					}
+					crawler.setCanonicalizer(canonicalizer);
+				}
+				NearDuplicateDetector duplicates = null;
+				if (argument.hasFlag("-dedup")) {
+					// skip printer views, session variants and mirrors of pages already indexed
+					duplicates = new NearDuplicateDetector(
+							argument.getInteger("-dedup", NearDuplicateDetector.DEFAULT_SIMILARITY));
+					crawler.setDuplicateDetector(duplicates);
+				}
+				// refresh the crawled pages in the background while serving, or once right after the crawl
+				boolean periodic = argument.hasFlag("-recrawl") && argument.hasFlag("-server");
+				HttpConnectionPool pool = null;
+				if (argument.hasFlag("-keepalive")) {
+					pool = new HttpConnectionPool(argument.getInteger("-keepalive", HttpConnectionPool.DEFAULT));
+					crawler.setConnectionPool(pool);
+				}
 				try {
 					url = new URL(seedURL);
 					crawler.crawl(url);
+					if (checkpoint != null) {
+						checkpoint.save();
+					}
+					if (argument.hasFlag("-recrawl") && !periodic) {
+						System.out.println("Recrawled: " + crawler.recrawl());
+					}
 				} catch (MalformedURLException e) {
 					e.printStackTrace();
+				} catch (IOException e) {
+					e.printStackTrace();
+				} finally {
+					if (pool != null && !periodic) {
+						pool.close();
+					}
+					if (frontier instanceof BestFirstCrawlFrontier && !periodic) {
+						((BestFirstCrawlFrontier) frontier).close();
+					}
+				}
+				System.out.printf("Fetched: %d bytes (%d bytes decoded)%n", HttpsFetcher.getTransferredBytes(),
+						HttpsFetcher.getDecodedBytes());
+				if (canonicalizer != null) {
+					System.out.println("Canonicalized: " + canonicalizer.getRewritten() + " urls");
+				}
+				if (duplicates != null) {
+					System.out.println("Near-duplicates skipped: " + duplicates);
+				}
+
+				if (periodic) {
+					long interval = Math.max(1, argument.getInteger("-recrawl", 3600)) * 1000L;
+					WebCrawler recrawler = crawler;
+					CrawlFrontier recrawled = frontier;
+					Thread refresh = new Thread(() -> {
+						try {
+							while (!Thread.currentThread().isInterrupted()) {
+								try {
+									Thread.sleep(interval);
+								} catch (InterruptedException e) {
+									return;
+								}
+								System.out.println("Recrawled: " + recrawler.recrawl());
+							}
+						} finally {
+							// changed pages may offer links to the frontier until the refresh stops
+							if (recrawled instanceof BestFirstCrawlFrontier) {
+								((BestFirstCrawlFrontier) recrawled).close();
+							}
+						}
+					});
+					refresh.setDaemon(true);
+					refresh.start();
 				}
 			}
 			int port;
@@ -84,15 +246,18 @@ public class Driver {
 					port = 8080;
 				}
 				try {
-					Server server = new Server(port);
+					// serves in the background, joined once the index is built
+					server = new Server(port);
 					ServletHandler handler = new ServletHandler();
 					ServletHolder holder = new ServletHolder(new SearchServlet(threadsafeIndex));
 					handler.addServletWithMapping(holder , "/");
+					handler.addServletWithMapping(new ServletHolder(new SearchApiServlet(threadsafeIndex)), "/api/search");
+					handler.addServletWithMapping(new ServletHolder(new SuggestServlet(threadsafeIndex)), "/suggest");
 					server.setHandler(handler);
 					server.start();
-					server.join();
 				} catch (Exception e) {
 					e.printStackTrace();
+					server = null;
 				}
 			}
 		} else { // if single threading (threads not present)
@@ -101,15 +266,61 @@ public class Driver {
 			queryParser = new QueryFileParser(index);
 		}
 
+		if (argument.hasFlag("-expand")) {
+			// short prefixes only expand to their most common stems in partial searches
+			index.setExpansionLimit(argument.getInteger("-expand", InvertedIndex.DEFAULT_EXPANSIONS));
+		}
+
+		if (argument.hasFlag("-proximity")) {
+			// rank locations where the query words are close together higher, given in percent
+			int percent = argument.getInteger("-proximity", (int) (InvertedIndex.DEFAULT_PROXIMITY * 100));
+			index.setProximityBoost(percent / 100.0);
+		}
+
+		if (argument.hasFlag("-scorer")) {
+			// rank with BM25 instead of by the share of matching words
+			Scorer scorer = Scorer.forName(argument.getString("-scorer", "bm25"));
+			if (scorer == null) {
+				System.out.println("unknown scorer " + argument.getString("-scorer") + ", ranking by count");
+			} else {
+				index.setScorer(scorer);
+			}
+		}
+
 		if (argument.hasFlag("-path") && argument.getPath("-path") != null) {
 			Path path = argument.getPath("-path");
 
-			try {
-				adder.build(path);
-			} catch (IOException e) {
-				System.out.println("unable to build inverted index from given path " + path);
-				return;
+			if (loggedIndex != null && loggedIndex.isRecovered()) {
+				System.out.println("Recovered the inverted index, not rebuilding it from " + path);
+			} else {
+				try {
+					adder.build(path);
+					index.freeze();
+					if (loggedIndex != null) {
+						loggedIndex.snapshot();
+					}
+				} catch (IOException e) {
+					System.out.println("unable to build inverted index from given path " + path);
+					return;
+				}
 			}
+
+			if (argument.hasFlag("-watch") && Files.isDirectory(path)) {
+				// reindex only the changed files while the index is in use
+				int debounce = argument.getInteger("-watch", IndexWatcher.DEFAULT_DEBOUNCE);
+				try {
+					watcher = new IndexWatcher((ThreadSafeInvertedIndex) index, queue, path, debounce);
+					// files may have changed since the logged index was written
+					watcher.setRescan(loggedIndex != null && loggedIndex.isRecovered());
+				} catch (IOException e) {
+					System.out.println("unable to watch given path " + path);
+				}
+			}
+		}
+
+		if (argument.hasFlag("-impacts")) {
+			// order the postings by impact, so top results of short queries stop reading early
+			index.setImpactOrder(true);
 		}
 
 		if (argument.hasFlag("-index")) {
@@ -140,6 +351,21 @@ public class Driver {
 				System.out.println("unable to write query from given flag" + queryPath);
 				return;
 			}
+
+			if (argument.hasFlag("-explain")) {
+				// show how each distinct query was searched, to find out why one was slow
+				try {
+					Set<String> explained = new HashSet<>();
+					for (String line : Files.readAllLines(queryPath, StandardCharsets.UTF_8)) {
+						Query query = Query.parse(line);
+						if (!query.isEmpty() && explained.add(query.toString())) {
+							System.out.print(index.explain(query, argument.hasFlag("-exact")));
+						}
+					}
+				} catch (IOException e) {
+					System.out.println("unable to explain the queries in " + queryPath);
+				}
+			}
 		}
 
 		if (argument.hasFlag("-results")) {
@@ -151,10 +377,48 @@ public class Driver {
 			}
 		}
 
+		// keep serving and watching until stopped
+		Thread watching = null;
+		if (watcher != null) {
+			watching = new Thread(watcher);
+			watching.start();
+		}
+		try {
+			if (server != null) {
+				server.join();
+			}
+			if (watching != null) {
+				watching.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
 		if (queue != null) {
 			queue.shutdown();
 		}
 
+		if (cache != null) {
+			System.out.println("Query cache: " + cache);
+		}
+
+		if (index.getTruncatedSearches() > 0) {
+			System.out.println("Truncated prefix expansions: " + index.getTruncatedSearches() + " searches");
+		}
+
+		if (loggedIndex != null) {
+			try {
+				loggedIndex.snapshot();
+				loggedIndex.close();
+			} catch (IOException e) {
+				System.out.println("unable to save the inverted index, it will be recovered from the log");
+			}
+		}
+
+		if (fetchQueue != null) {
+			fetchQueue.shutdown();
+		}
+
 		// calculate time elapsed and output
 		Duration elapsed = Duration.between(start, Instant.now());
 		double seconds = (double) elapsed.toMillis() / Duration.ofSeconds(1).toMillis();
@@ -10,6 +10,15 @@ import java.util.regex.Pattern;
  */
 public class HtmlCleaner {
 
+	/** Regular expression that matches an HTML comment. */
+	private static final Pattern COMMENT_REGEX = Pattern.compile("(?s)<!--.*?-->");
+
+	/** Regular expression that matches an HTML tag. */
+	private static final Pattern TAG_REGEX = Pattern.compile("<.[^<>]*>?");
+
+	/** Regular expression that matches an HTML entity. */
+	private static final Pattern ENTITY_REGEX = Pattern.compile("(&[^\\s].*?;)");
+
 	/**
 	 * Removes all HTML tags and certain block elements from the provided text.
 	 * The block elements removed include: head, style, script, noscript, iframe,
@@ -51,9 +60,7 @@ public class HtmlCleaner {
 	 * @return text without any HTML entities
 	 */
 	public static String stripEntities(String html) {
-		String regex = "(&[^\\s].*?;)";
-		Pattern pattern = Pattern.compile(regex);
-		Matcher matcher = pattern.matcher(html);
+		Matcher matcher = ENTITY_REGEX.matcher(html);
 		return matcher.replaceAll("");
 	}
 
@@ -65,9 +72,7 @@ public class HtmlCleaner {
 	 * @return text without any HTML tags
 	 */
 	public static String stripTags(String html) {
-		String regex = "<.[^<>]*>?";
-		Pattern pattern = Pattern.compile(regex);
-		Matcher matcher = pattern.matcher(html);
+		Matcher matcher = TAG_REGEX.matcher(html);
 		return matcher.replaceAll("");
 	}
 
@@ -95,13 +100,8 @@ public class HtmlCleaner {
 	 * @see Matcher#replaceAll(java.util.function.Function)
 	 */
 	public static String stripComments(String html) {
-		String regex = "(?s)<!--.*?-->";
-		Pattern pattern = Pattern.compile(regex);
-		Matcher matcher = pattern.matcher(html);
-		while(matcher.find()) {
-			html = hasNewline(matcher.group()) ? html.replaceFirst(regex, " ") : html.replaceFirst(regex, "");
-		}
-		return html;
+		Matcher matcher = COMMENT_REGEX.matcher(html);
+		return matcher.replaceAll(match -> hasNewline(match.group()) ? " " : "");
 	}
 	
 
@@ -128,10 +128,7 @@ public class HtmlCleaner {
 		String regex = "(?mis)<" + name + "\\b.+?" + name + "\\s*?>";
 		Pattern pattern = Pattern.compile(regex);
 		Matcher matcher = pattern.matcher(html);
-		while(matcher.find()) {
-			html = hasNewline(matcher.group()) ? html.replaceFirst(regex, " ") : html.replaceFirst(regex, "");
-		}
-		return html;
+		return matcher.replaceAll(match -> hasNewline(match.group()) ? " " : "");
 	}
 	
 	/**
@@ -141,6 +138,6 @@ public class HtmlCleaner {
 	 * @return true if the input has one or more newlines
 	 */
 	public static boolean hasNewline(String input) {
-		return input.matches("(?s).*[\n\r]+.*");
+		return input.indexOf('\n') >= 0 || input.indexOf('\r') >= 0;
 	}
 }
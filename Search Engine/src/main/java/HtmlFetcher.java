@@ -1,5 +1,3 @@
-import java.io.BufferedReader;
-import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
@@ -13,6 +11,9 @@ import java.util.Map;
  */
 public class HtmlFetcher {
 
+	/** The default maximum size of a fetched page in bytes. */
+	public static final long MAX_BYTES = 5 * 1024 * 1024;
+
 	/**
 	 * Returns {@code true} if and only if there is a "Content-Type" header and the
 	 * first value of that header starts with the value "text/html"
@@ -71,41 +72,105 @@ public class HtmlFetcher {
 	 * @return the html or {@code null} if unable to fetch the resource or the
 	 *         resource is not html
 	 *
-	 * @see HttpsFetcher#openConnection(URL)
-	 * @see HttpsFetcher#printGetRequest(PrintWriter, URL)
-	 * @see HttpsFetcher#getHeaderFields(BufferedReader)
-	 * @see HttpsFetcher#getContent(BufferedReader)
-	 *
-	 * @see String#join(CharSequence, CharSequence...)
+	 * @see #fetch(URL, int, HttpConnectionPool, long)
 	 *
 	 * @see #isHtml(Map)
 	 * @see #isRedirect(Map)
 	 */
 	public static String fetch(URL url, int redirects) {
-		// String html;
+		return fetch(url, redirects, null);
+	}
+
+	/**
+	 * Same as {@link #fetch(URL, int)}, but fetches the url and any redirects
+	 * over keep-alive connections from the provided pool. If the pool is
+	 * {@code null}, opens a new connection for every request instead.
+	 *
+	 * @param url       the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param pool      the pool of keep-alive connections, or {@code null}
+	 * @return the html or {@code null} if unable to fetch the resource or the
+	 *         resource is not html
+	 *
+	 * @see #fetch(URL, int, HttpConnectionPool, long)
+	 */
+	public static String fetch(URL url, int redirects, HttpConnectionPool pool) {
+		return fetch(url, redirects, pool, MAX_BYTES);
+	}
+
+	/**
+	 * Same as {@link #fetch(URL, int, HttpConnectionPool)}, but decides from the
+	 * headers alone whether the body is worth downloading. Only the body of a 200
+	 * response with an HTML content type is read; redirects, errors and other
+	 * content types are abandoned after the headers. Pages with a body larger
+	 * than the maximum number of bytes are not returned.
+	 *
+	 * @param url       the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param pool      the pool of keep-alive connections, or {@code null}
+	 * @param maxBytes  the maximum size of a page in bytes
+	 * @return the html or {@code null} if unable to fetch the resource, the
+	 *         resource is not html, or the resource is too large
+	 *
+	 * @see HttpsFetcher#fetchURL(URL, HttpConnectionPool, java.util.function.Predicate, long)
+	 */
+	public static String fetch(URL url, int redirects, HttpConnectionPool pool, long maxBytes) {
+		Map<String, List<String>> headers = fetchResponse(url, redirects, pool, maxBytes, Map.of());
+		if (headers != null && isIndexable(headers) && headers.containsKey("Content")) {
+			return headers.get("Content").get(0);
+		}
+		return null;
+	}
+
+	/**
+	 * Same as {@link #fetch(URL, int, HttpConnectionPool, long)}, but sends the
+	 * given request headers with every request and returns the headers of the
+	 * final response, with the html under the "Content" key if it is indexable.
+	 * Used for conditional requests, where a "304 Not Modified" response means the
+	 * page did not change.
+	 *
+	 * @param url       the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param pool      the pool of keep-alive connections, or {@code null}
+	 * @param maxBytes  the maximum size of a page in bytes
+	 * @param request   additional request headers by name
+	 * @return the headers of the final response, or {@code null} if unable to
+	 *         fetch the resource or there were too many redirects
+	 */
+	public static Map<String, List<String>> fetchResponse(URL url, int redirects, HttpConnectionPool pool,
+			long maxBytes, Map<String, String> request) {
 		Map<String, List<String>> headers = null;
 		if (redirects < 0) {
 			return null;
 		}
 		try {
-			headers = HttpsFetcher.fetchURL(url);
+			HttpConnectionPool connections = pool == null ? new HttpConnectionPool(0) : pool;
+			headers = HttpsFetcher.fetchURL(url, connections, request, HtmlFetcher::isIndexable, maxBytes);
 		} catch (Exception e) {
 			System.out.println("Exception");
+			return null;
 		}
-		if (getStatusCode(headers) == 200) {
-			if (isHtml(headers)) {
-				String html = String.join("\n", headers.get("Content"));
-				return html;
-			}
-		} else if (isRedirect(headers)) {
+		if (isRedirect(headers)) {
 			try {
 				URL link = new URL(url, headers.get("Location").get(0));
-				return fetch(link, redirects - 1);
+				return fetchResponse(link, redirects - 1, pool, maxBytes, request);
 			} catch (MalformedURLException e) {
 				System.out.println("MalformedURLException");
+				return null;
 			}
 		}
-		return null;
+		return headers;
+	}
+
+	/**
+	 * Returns {@code true} if the status code is 200 and the content type is
+	 * HTML, meaning the body of the response will be indexed.
+	 *
+	 * @param headers the HTTP/1.1 headers to parse
+	 * @return {@code true} if the body of the response is needed
+	 */
+	public static boolean isIndexable(Map<String, List<String>> headers) {
+		return getStatusCode(headers) == 200 && isHtml(headers);
 	}
 
 	/**
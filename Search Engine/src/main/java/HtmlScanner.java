@@ -0,0 +1,392 @@
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scans HTML from start to end, collecting the visible text and the links in
+ * anchor tags at the same time. Produces the same text as
+ * {@link HtmlCleaner#stripHtml(String)} and the same links as
+ * {@link LinkParser#getValidLinks(URL, String)} run on the output of
+ * {@link HtmlCleaner#stripBlockElements(String)}, without any regular
+ * expressions. Comments and block elements are removed first, and the
+ * remaining (usually much shorter) html is then scanned once for tags, links
+ * and text, so the total work is linear in the size of the page.
+ *
+ * @see HtmlCleaner
+ * @see LinkParser
+ */
+public class HtmlScanner {
+
+	/**
+	 * Block elements removed along with their content. Matches the elements
+	 * removed by {@link HtmlCleaner#stripBlockElements(String)}.
+	 */
+	private static final String[] BLOCK_ELEMENTS = { "head", "style", "script", "noscript", "svg" };
+
+	/** The html being scanned, without comments and block elements. */
+	private final String html;
+
+	/** The base url used to convert relative links to absolute. */
+	private final URL base;
+
+	/** The visible text found so far, entities not yet removed. */
+	private final StringBuilder text;
+
+	/** The valid links found so far, in the order they were found. */
+	private final ArrayList<URL> links;
+
+	/**
+	 * Position where the last matched link ended. Anchor tags that start before
+	 * this position were consumed by the previous link.
+	 */
+	private int linkEnd;
+
+	/**
+	 * Scans the html, collecting its visible text and links.
+	 *
+	 * @param base the base url used to convert relative links to absolute
+	 * @param html the raw html associated with the base url
+	 */
+	public HtmlScanner(URL base, String html) {
+		this.html = stripBlockElements(html);
+		this.base = base;
+		this.text = new StringBuilder(this.html.length());
+		this.links = new ArrayList<>();
+		this.linkEnd = 0;
+		scan();
+	}
+
+	/**
+	 * Returns the visible text of the html, the same as
+	 * {@link HtmlCleaner#stripHtml(String)}.
+	 *
+	 * @return the text clean of any HTML tags, entities and block elements
+	 */
+	public String getText() {
+		return stripEntities(text);
+	}
+
+	/**
+	 * Returns the valid HTTP(S) links found in anchor tags outside of removed
+	 * block elements, absolute and normalized.
+	 *
+	 * @return list of all valid links in the order they were found
+	 */
+	public List<URL> getLinks() {
+		return links;
+	}
+
+	/**
+	 * Walks the html once, skipping tags and copying everything else to the
+	 * text.
+	 */
+	private void scan() {
+		int length = html.length();
+		int start = 0;
+		int i = html.indexOf('<');
+
+		while (i >= 0 && i < length) {
+			text.append(html, start, i);
+			int end = skipTag(i);
+			if (end < 0) {
+				// not a tag (for example a "<" right before a newline)
+				end = i + 1;
+				text.append('<');
+			}
+			start = end;
+			i = html.indexOf('<', end);
+		}
+		text.append(html, start, length);
+	}
+
+	/**
+	 * Removes comments and certain block elements from the html in a single
+	 * pass, the same as {@link HtmlCleaner#stripBlockElements(String)} for
+	 * properly nested html. Each comment or element is replaced with a single
+	 * space if it spans multiple lines.
+	 *
+	 * @param html the HTML to strip comments and block elements from
+	 * @return text clean of any comments and certain HTML block elements
+	 */
+	private static String stripBlockElements(String html) {
+		StringBuilder stripped = new StringBuilder(html.length());
+		int length = html.length();
+
+		// positions after which an element is known to have no closing tag
+		int[] unclosed = new int[BLOCK_ELEMENTS.length + 1];
+		Arrays.fill(unclosed, Integer.MAX_VALUE);
+
+		int start = 0;
+		int i = html.indexOf('<');
+
+		while (i >= 0 && i < length) {
+			int end = -1;
+			if (html.startsWith("<!--", i) && i + 4 < unclosed[BLOCK_ELEMENTS.length]) {
+				int close = html.indexOf("-->", i + 4);
+				end = close < 0 ? -1 : close + 3;
+				if (end < 0) {
+					unclosed[BLOCK_ELEMENTS.length] = i + 4;
+				}
+			} else {
+				for (int b = 0; b < BLOCK_ELEMENTS.length; b++) {
+					String name = BLOCK_ELEMENTS[b];
+					int after = i + 1 + name.length();
+					if (html.regionMatches(true, i + 1, name, 0, name.length())
+							&& (after >= length || !isWordCharacter(html.charAt(after)))) {
+						end = after + 1 >= unclosed[b] ? -1 : findClosing(html, name, after + 1);
+						if (end < 0) {
+							unclosed[b] = Math.min(unclosed[b], after + 1);
+						}
+						break;
+					}
+				}
+			}
+
+			if (end < 0) {
+				i = html.indexOf('<', i + 1);
+				continue;
+			}
+
+			stripped.append(html, start, i);
+			if (hasNewline(html, i, end)) {
+				stripped.append(' ');
+			}
+			start = end;
+			i = html.indexOf('<', end);
+		}
+		stripped.append(html, start, length);
+		return stripped.toString();
+	}
+
+	/**
+	 * Finds the first occurrence of the element name (ignoring case) followed
+	 * by optional whitespace and a "&gt;" at or after the given position.
+	 *
+	 * @param html the html to search
+	 * @param name the element name
+	 * @param from the position to start searching
+	 * @return position just after the "&gt;", or -1 if not found
+	 */
+	private static int findClosing(String html, String name, int from) {
+		int length = html.length();
+		int last = length - name.length();
+		char lower = Character.toLowerCase(name.charAt(0));
+		char upper = Character.toUpperCase(name.charAt(0));
+
+		for (int j = from; j <= last; j++) {
+			char c = html.charAt(j);
+			if ((c == lower || c == upper) && html.regionMatches(true, j, name, 0, name.length())) {
+				int k = j + name.length();
+				while (k < length && isRegexSpace(html.charAt(k))) {
+					k++;
+				}
+				if (k < length && html.charAt(k) == '>') {
+					return k + 1;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns whether the html between two positions has a newline.
+	 *
+	 * @param html  the html
+	 * @param start the start position (inclusive)
+	 * @param end   the end position (exclusive)
+	 * @return {@code true} if there is a "\n" or "\r" in that range
+	 */
+	private static boolean hasNewline(String html, int start, int end) {
+		for (int j = start; j < end; j++) {
+			char c = html.charAt(j);
+			if (c == '\n' || c == '\r') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Skips a tag starting at the given position. A tag is a "&lt;" followed by
+	 * any character other than a line break, then everything up to the next
+	 * "&lt;" or "&gt;" (the "&gt;" is included). Anchor tags are checked for
+	 * links along the way.
+	 *
+	 * @param i position of a "&lt;" character
+	 * @return position just after the tag, or -1 if there is no tag
+	 */
+	private int skipTag(int i) {
+		int length = html.length();
+		if (i + 1 >= length || isLineBreak(html.charAt(i + 1))) {
+			return -1;
+		}
+
+		int end = i + 2;
+		while (end < length && html.charAt(end) != '<' && html.charAt(end) != '>') {
+			end++;
+		}
+
+		findLink(i);
+
+		// the second character may itself be a "<" that starts an anchor tag
+		if (html.charAt(i + 1) == '<') {
+			findLink(i + 1);
+		}
+
+		return end < length && html.charAt(end) == '>' ? end + 1 : end;
+	}
+
+	/**
+	 * Looks for a double quoted href attribute if there is an anchor tag at the
+	 * given position, and adds its link if valid. The href must appear before
+	 * the end of the tag, but its value may contain any character other than a
+	 * double quote. Like {@link LinkParser#getValidLinks(URL, String)}, anchor
+	 * tags inside the text matched for a previous link are ignored.
+	 *
+	 * @param start the position of a "&lt;" character
+	 */
+	private void findLink(int start) {
+		int from = start + 2;
+		if (start < linkEnd || from > html.length() || Character.toLowerCase(html.charAt(start + 1)) != 'a') {
+			return;
+		}
+
+		int length = html.length();
+
+		for (int j = from; j < length && html.charAt(j) != '>'; j++) {
+			if (html.regionMatches(true, j, "href", 0, 4)) {
+				int k = skipWhitespace(j + 4);
+				if (k < length && html.charAt(k) == '=') {
+					k = skipWhitespace(k + 1);
+					if (k < length && html.charAt(k) == '"') {
+						int close = html.indexOf('"', k + 2);
+						int end = close < 0 ? -1 : html.indexOf('>', close);
+						if (end >= 0) {
+							URL link = LinkParser.toValidLink(base, html.substring(k + 1, close));
+							if (link != null) {
+								links.add(link);
+							}
+							linkEnd = end + 1;
+							return;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the position of the first non-whitespace character at or after
+	 * the given position.
+	 *
+	 * @param from the position to start from
+	 * @return the position of the next non-whitespace character
+	 */
+	private int skipWhitespace(int from) {
+		int k = from;
+		while (k < html.length() && isRegexSpace(html.charAt(k))) {
+			k++;
+		}
+		return k;
+	}
+
+	/**
+	 * Removes HTML entities from the text, the same way as
+	 * {@link HtmlCleaner#stripEntities(String)}. An entity starts with a "&amp;"
+	 * followed by a non-whitespace character and ends at the next ";" on the
+	 * same line.
+	 *
+	 * @param text the text including entities
+	 * @return the text without entities
+	 */
+	private static String stripEntities(CharSequence text) {
+		int length = text.length();
+		StringBuilder clean = new StringBuilder(length);
+		int semicolon = -1;
+		int lineBreak = -1;
+		int i = 0;
+
+		while (i < length) {
+			char c = text.charAt(i);
+			if (c == '&' && i + 1 < length && !isRegexSpace(text.charAt(i + 1))) {
+				if (semicolon < i + 2) {
+					semicolon = indexOf(text, ';', i + 2);
+				}
+				if (lineBreak < i + 2) {
+					lineBreak = nextLineBreak(text, i + 2);
+				}
+				if (semicolon < length && semicolon < lineBreak) {
+					i = semicolon + 1;
+					continue;
+				}
+			}
+			clean.append(c);
+			i++;
+		}
+		return clean.toString();
+	}
+
+	/**
+	 * Returns the position of a character at or after the given position.
+	 *
+	 * @param text the text to search
+	 * @param c    the character to find
+	 * @param from the position to start from
+	 * @return the position of the character, or the text length if not found
+	 */
+	private static int indexOf(CharSequence text, char c, int from) {
+		int j = from;
+		while (j < text.length() && text.charAt(j) != c) {
+			j++;
+		}
+		return j;
+	}
+
+	/**
+	 * Returns the position of the next line break at or after the given position.
+	 *
+	 * @param text the text to search
+	 * @param from the position to start from
+	 * @return the position of the line break, or the text length if not found
+	 */
+	private static int nextLineBreak(CharSequence text, int from) {
+		int j = from;
+		while (j < text.length() && !isLineBreak(text.charAt(j))) {
+			j++;
+		}
+		return j;
+	}
+
+	/**
+	 * Returns whether the character ends a line, as far as the "." in a regular
+	 * expression is concerned.
+	 *
+	 * @param c the character
+	 * @return {@code true} if the character is a line terminator
+	 */
+	private static boolean isLineBreak(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	/**
+	 * Returns whether the character matches "\s" in a regular expression.
+	 *
+	 * @param c the character
+	 * @return {@code true} if the character is whitespace
+	 */
+	private static boolean isRegexSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	/**
+	 * Returns whether the character counts as part of a word for the "\b" word
+	 * boundary in a regular expression.
+	 *
+	 * @param c the character
+	 * @return {@code true} if the character is a word character
+	 */
+	private static boolean isWordCharacter(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+}
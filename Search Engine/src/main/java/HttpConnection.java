@@ -0,0 +1,255 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A single keep-alive connection to a web server that can be reused for
+ * several requests to the same host. Plain HTTP connections use a non-blocking
+ * {@link SocketChannel} with a {@link Selector} so that connects and reads time
+ * out instead of hanging a crawler thread. HTTPS connections use an
+ * {@link javax.net.ssl.SSLSocket} so the TLS handshake is only paid once per
+ * connection.
+ *
+ * @see HttpConnectionPool
+ */
+public class HttpConnection implements AutoCloseable {
+
+	/** Default connect and read timeout in milliseconds. */
+	public static final int TIMEOUT = 10000;
+
+	/** The pool key (protocol, host and port) this connection belongs to. */
+	private final String key;
+
+	/** Buffered input stream of the response. */
+	private final InputStream input;
+
+	/** Buffered output stream for the request. */
+	private final OutputStream output;
+
+	/** The underlying socket or channel, closed with this connection. */
+	private final AutoCloseable resource;
+
+	/** Number of requests sent over this connection. */
+	private int requests;
+
+	/**
+	 * Opens a new connection to the web server associated with the URL.
+	 *
+	 * @param url the url to connect to
+	 * @throws IOException if unable to connect
+	 */
+	public HttpConnection(URL url) throws IOException {
+		this.key = key(url);
+		this.requests = 0;
+
+		String host = url.getHost();
+		boolean https = isHttps(url);
+		int port = url.getPort() < 0 ? (https ? 443 : 80) : url.getPort();
+
+		if (https) {
+			Socket socket = SSLSocketFactory.getDefault().createSocket();
+			socket.connect(new InetSocketAddress(host, port), TIMEOUT);
+			socket.setSoTimeout(TIMEOUT);
+			this.resource = socket;
+			this.input = new BufferedInputStream(socket.getInputStream());
+			this.output = new BufferedOutputStream(socket.getOutputStream());
+		} else {
+			ChannelStreams streams = new ChannelStreams(host, port);
+			this.resource = streams;
+			this.input = new BufferedInputStream(streams.input);
+			this.output = new BufferedOutputStream(streams.output);
+		}
+	}
+
+	/**
+	 * Returns the key used to pool connections for the URL, made of the
+	 * protocol, host and port.
+	 *
+	 * @param url the url
+	 * @return the pool key
+	 */
+	public static String key(URL url) {
+		boolean https = isHttps(url);
+		int port = url.getPort() < 0 ? (https ? 443 : 80) : url.getPort();
+		return (https ? "https" : "http") + "://" + url.getHost().toLowerCase() + ":" + port;
+	}
+
+	/**
+	 * Returns {@code true} if the URL uses the HTTPS protocol.
+	 *
+	 * @param url the url
+	 * @return {@code true} if the url is https
+	 */
+	public static boolean isHttps(URL url) {
+		return url.getProtocol() != null && url.getProtocol().equalsIgnoreCase("https");
+	}
+
+	/**
+	 * Getter for the pool key
+	 *
+	 * @return String
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Getter for the response stream
+	 *
+	 * @return InputStream
+	 */
+	public InputStream getInput() {
+		return input;
+	}
+
+	/**
+	 * Getter for the request stream
+	 *
+	 * @return OutputStream
+	 */
+	public OutputStream getOutput() {
+		return output;
+	}
+
+	/**
+	 * Returns whether this connection has already been used for a request, in
+	 * which case the server may have closed it while it sat in the pool.
+	 *
+	 * @return {@code true} if the connection was reused
+	 */
+	public boolean isReused() {
+		return requests > 0;
+	}
+
+	/**
+	 * Records that a request was sent over this connection.
+	 */
+	public void used() {
+		requests++;
+	}
+
+	@Override
+	public void close() {
+		try {
+			resource.close();
+		} catch (Exception e) {
+			// nothing useful to do, the connection is discarded either way
+		}
+	}
+
+	/**
+	 * Input and output streams on top of a non-blocking socket channel. Every
+	 * blocking wait goes through a selector with a timeout.
+	 */
+	private static class ChannelStreams implements AutoCloseable {
+
+		/** The non-blocking channel. */
+		private final SocketChannel channel;
+
+		/** Selector used to wait for the channel to become ready. */
+		private final Selector selector;
+
+		/** Stream reading from the channel. */
+		private final InputStream input;
+
+		/** Stream writing to the channel. */
+		private final OutputStream output;
+
+		/**
+		 * Connects a non-blocking channel to the host and port.
+		 *
+		 * @param host the host
+		 * @param port the port
+		 * @throws IOException if unable to connect within the timeout
+		 */
+		public ChannelStreams(String host, int port) throws IOException {
+			this.channel = SocketChannel.open();
+			this.selector = Selector.open();
+
+			try {
+				channel.configureBlocking(false);
+				if (!channel.connect(new InetSocketAddress(host, port))) {
+					await(SelectionKey.OP_CONNECT);
+					channel.finishConnect();
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+
+			this.input = new InputStream() {
+				@Override
+				public int read() throws IOException {
+					byte[] single = new byte[1];
+					return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+				}
+
+				@Override
+				public int read(byte[] bytes, int offset, int length) throws IOException {
+					ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+					int read;
+					while ((read = channel.read(buffer)) == 0) {
+						await(SelectionKey.OP_READ);
+					}
+					return read;
+				}
+			};
+
+			this.output = new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte[] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] bytes, int offset, int length) throws IOException {
+					ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+					while (buffer.hasRemaining()) {
+						if (channel.write(buffer) == 0) {
+							await(SelectionKey.OP_WRITE);
+						}
+					}
+				}
+			};
+		}
+
+		/**
+		 * Waits until the channel is ready for the given operation.
+		 *
+		 * @param operation the selection key operation
+		 * @throws IOException if the channel is not ready before the timeout
+		 */
+		private void await(int operation) throws IOException {
+			SelectionKey key = channel.register(selector, operation);
+			try {
+				if (selector.select(TIMEOUT) == 0) {
+					throw new SocketTimeoutException("timed out waiting on " + channel.getRemoteAddress());
+				}
+				selector.selectedKeys().clear();
+			} finally {
+				key.interestOps(0);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				selector.close();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+}
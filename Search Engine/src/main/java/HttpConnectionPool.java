@@ -0,0 +1,85 @@
+import java.io.IOException;
+import java.net.URL;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Keeps idle keep-alive connections per host so that repeated requests to the
+ * same server skip the TCP and TLS setup.
+ *
+ * @see HttpConnection
+ * @see HttpsFetcher#fetchURL(URL, HttpConnectionPool)
+ */
+public class HttpConnectionPool implements AutoCloseable {
+
+	/** The default number of idle connections kept per host. */
+	public static final int DEFAULT = 8;
+
+	/** Idle connections keyed by protocol, host and port. */
+	private final ConcurrentHashMap<String, Deque<HttpConnection>> idle;
+
+	/** Maximum number of idle connections kept per host. */
+	private final int maxIdle;
+
+	/**
+	 * Creates a pool with the default number of idle connections per host.
+	 */
+	public HttpConnectionPool() {
+		this(DEFAULT);
+	}
+
+	/**
+	 * Creates a pool that keeps at most the given idle connections per host.
+	 *
+	 * @param maxIdle maximum idle connections kept per host
+	 */
+	public HttpConnectionPool(int maxIdle) {
+		this.idle = new ConcurrentHashMap<>();
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * Returns an idle connection for the URL's host, or opens a new one if none
+	 * are available.
+	 *
+	 * @param url the url to connect to
+	 * @return a connection to the url's host
+	 * @throws IOException if unable to open a new connection
+	 */
+	public HttpConnection acquire(URL url) throws IOException {
+		Deque<HttpConnection> connections = idle.get(HttpConnection.key(url));
+		HttpConnection connection = connections == null ? null : connections.pollFirst();
+		return connection == null ? new HttpConnection(url) : connection;
+	}
+
+	/**
+	 * Returns a connection to the pool after its response was fully read. The
+	 * connection is closed instead if the host already has enough idle
+	 * connections.
+	 *
+	 * @param connection the connection to return
+	 */
+	public void release(HttpConnection connection) {
+		Deque<HttpConnection> connections = idle.computeIfAbsent(connection.getKey(),
+				key -> new ConcurrentLinkedDeque<>());
+		if (connections.size() < maxIdle) {
+			connections.addFirst(connection);
+		} else {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Closes all idle connections.
+	 */
+	@Override
+	public void close() {
+		for (Deque<HttpConnection> connections : idle.values()) {
+			HttpConnection connection;
+			while ((connection = connections.pollFirst()) != null) {
+				connection.close();
+			}
+		}
+	}
+}
@@ -1,9 +1,16 @@
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.PushbackInputStream;
 import java.net.MalformedURLException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
@@ -12,7 +19,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
 import javax.net.SocketFactory;
 import javax.net.ssl.SSLSocketFactory;
@@ -23,6 +36,43 @@ import javax.net.ssl.SSLSocketFactory;
  */
 public class HttpsFetcher {
 
+	/**
+	 * Largest unwanted body (in bytes) that is read and discarded to keep a
+	 * connection alive, rather than closing the connection.
+	 */
+	public static final long DRAIN_LIMIT = 64 * 1024;
+
+	/**
+	 * Longest status, header or chunk size line (in bytes) read from a response
+	 * before giving up on it.
+	 */
+	public static final int LINE_LIMIT = 16 * 1024;
+
+	/** Body bytes received over the network by the keep-alive fetcher. */
+	private static final LongAdder transferredBytes = new LongAdder();
+
+	/** Body bytes after removing any gzip or deflate content encoding. */
+	private static final LongAdder decodedBytes = new LongAdder();
+
+	/**
+	 * Returns the number of body bytes received over the network, before any
+	 * content encoding is removed.
+	 *
+	 * @return the number of bytes transferred
+	 */
+	public static long getTransferredBytes() {
+		return transferredBytes.sum();
+	}
+
+	/**
+	 * Returns the number of body bytes after removing any content encoding.
+	 *
+	 * @return the number of bytes decoded
+	 */
+	public static long getDecodedBytes() {
+		return decodedBytes.sum();
+	}
+
 	/**
 	 * Fetches the headers and content for the specified URL. The content is
 	 * placed as a list of all the lines fetched under the "Content" key.
@@ -62,6 +112,153 @@ public class HttpsFetcher {
 		return fetchURL(new URL(url));
 	}
 
+	/**
+	 * Fetches the headers and content for the specified URL over a keep-alive
+	 * connection from the pool, returning the connection to the pool afterwards
+	 * if the server allows it. Supports responses framed by "Content-Length",
+	 * chunked transfer encoding, or by closing the connection. The result has the
+	 * same format as {@link #fetchURL(URL)}.
+	 *
+	 * @param url  the url to fetch
+	 * @param pool the pool of keep-alive connections
+	 * @return a map with the headers and content
+	 * @throws IOException if unable to fetch headers and content
+	 */
+	public static Map<String, List<String>> fetchURL(URL url, HttpConnectionPool pool) throws IOException {
+		Map<String, List<String>> headers = fetchURL(url, pool, response -> true, Long.MAX_VALUE);
+		String content = headers.get("Content").get(0);
+		headers.put("Content", content.lines().collect(Collectors.toList()));
+		return headers;
+	}
+
+	/**
+	 * Fetches the headers for the specified URL over a keep-alive connection from
+	 * the pool, and only reads the content if the headers are accepted. Rejected
+	 * bodies are skipped when small (so the connection can be reused) and
+	 * abandoned otherwise. The content is placed as a single string under the
+	 * "Content" key, and is missing if the headers were rejected or the body is
+	 * larger than the maximum number of bytes.
+	 *
+	 * @param url      the url to fetch
+	 * @param pool     the pool of keep-alive connections
+	 * @param accept   decides from the headers whether the content is needed
+	 * @param maxBytes the maximum number of body bytes to read
+	 * @return a map with the headers and possibly the content
+	 * @throws IOException if unable to fetch headers and content
+	 */
+	public static Map<String, List<String>> fetchURL(URL url, HttpConnectionPool pool,
+			Predicate<Map<String, List<String>>> accept, long maxBytes) throws IOException {
+		return fetchURL(url, pool, Map.of(), accept, maxBytes);
+	}
+
+	/**
+	 * Same as {@link #fetchURL(URL, HttpConnectionPool, Predicate, long)}, but
+	 * sends additional request headers, for example "If-None-Match" and
+	 * "If-Modified-Since" to only download the content if it changed.
+	 *
+	 * @param url      the url to fetch
+	 * @param pool     the pool of keep-alive connections
+	 * @param request  additional request headers by name
+	 * @param accept   decides from the headers whether the content is needed
+	 * @param maxBytes the maximum number of body bytes to read
+	 * @return a map with the headers and possibly the content
+	 * @throws IOException if unable to fetch headers and content
+	 */
+	public static Map<String, List<String>> fetchURL(URL url, HttpConnectionPool pool, Map<String, String> request,
+			Predicate<Map<String, List<String>>> accept, long maxBytes) throws IOException {
+		HttpConnection connection = pool.acquire(url);
+		try {
+			Map<String, List<String>> headers = fetchURL(url, connection, pool, request, accept, maxBytes);
+			if (headers != null) {
+				return headers;
+			}
+		} catch (IOException | RuntimeException e) {
+			connection.close();
+			throw e;
+		}
+
+		// the server closed the idle connection before answering, retry once on a fresh one
+		connection.close();
+		connection = new HttpConnection(url);
+		try {
+			return fetchURL(url, connection, pool, request, accept, maxBytes);
+		} catch (IOException | RuntimeException e) {
+			connection.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Sends the request and reads the response over an open connection. The
+	 * connection is released back to the pool or closed when this returns
+	 * headers. A reused connection that fails before any of the response
+	 * arrives was closed by the server while it sat in the pool, so the request
+	 * can safely be sent again; once the response started, a failure is thrown
+	 * instead.
+	 *
+	 * @param url        the url to fetch
+	 * @param connection the connection to the url's host
+	 * @param pool       the pool to release the connection to
+	 * @param request    additional request headers by name
+	 * @param accept     decides from the headers whether the content is needed
+	 * @param maxBytes   the maximum number of body bytes to read
+	 * @return a map with the headers and possibly the content, or {@code null}
+	 *         if the reused connection was stale
+	 * @throws IOException if unable to fetch headers and content
+	 */
+	private static Map<String, List<String>> fetchURL(URL url, HttpConnection connection, HttpConnectionPool pool,
+			Map<String, String> request, Predicate<Map<String, List<String>>> accept, long maxBytes)
+			throws IOException {
+		boolean reused = connection.isReused();
+		PushbackInputStream response = new PushbackInputStream(connection.getInput());
+		int first;
+		try {
+			printKeepAliveRequest(connection.getOutput(), url, request);
+			connection.used();
+			first = response.read();
+		} catch (SocketTimeoutException e) {
+			// the server is slow rather than gone, sending the request again would not help
+			throw e;
+		} catch (IOException e) {
+			if (reused) {
+				return null;
+			}
+			throw e;
+		}
+		if (first == -1) {
+			if (reused) {
+				return null;
+			}
+			throw new EOFException("connection closed before response");
+		}
+		response.unread(first);
+
+		Map<String, List<String>> headers = getHeaderFields(response);
+		boolean reusable;
+
+		if (accept.test(headers)) {
+			byte[] body = getBody(response, headers, maxBytes);
+			reusable = body != null;
+			if (body != null) {
+				transferredBytes.add(body.length);
+				body = decode(body, headers, maxBytes);
+			}
+			if (body != null) {
+				decodedBytes.add(body.length);
+				headers.put("Content", List.of(new String(body, StandardCharsets.UTF_8)));
+			}
+		} else {
+			reusable = skipBody(response, headers);
+		}
+
+		if (reusable && isKeepAlive(headers)) {
+			pool.release(connection);
+		} else {
+			connection.close();
+		}
+		return headers;
+	}
+
 	/**
 	 * Uses a {@link Socket} to open a connection to the web server associated
 	 * with the provided URL. Supports HTTP and HTTPS connections.
@@ -103,6 +300,354 @@ public class HttpsFetcher {
 		writer.flush();
 	}
 
+	/**
+	 * Writes an HTTP/1.1 GET request that asks the server to keep the
+	 * connection open.
+	 *
+	 * @param output the output stream of a connection
+	 * @param url    the url to fetch via the connection
+	 * @throws IOException if unable to write request to the connection
+	 */
+	public static void printKeepAliveRequest(OutputStream output, URL url) throws IOException {
+		printKeepAliveRequest(output, url, Map.of());
+	}
+
+	/**
+	 * Writes an HTTP/1.1 GET request that asks the server to keep the
+	 * connection open, with additional request headers.
+	 *
+	 * @param output  the output stream of a connection
+	 * @param url     the url to fetch via the connection
+	 * @param headers additional request headers by name
+	 * @throws IOException if unable to write request to the connection
+	 */
+	public static void printKeepAliveRequest(OutputStream output, URL url, Map<String, String> headers)
+			throws IOException {
+		String host = url.getHost();
+		String resource = url.getFile().isEmpty() ? "/" : url.getFile();
+
+		StringBuilder request = new StringBuilder();
+		request.append(String.format("GET %s HTTP/1.1\r\n", resource));
+		request.append(String.format("Host: %s\r\n", host));
+		request.append("Connection: keep-alive\r\n");
+		request.append("Accept-Encoding: gzip, deflate\r\n");
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			request.append(String.format("%s: %s\r\n", header.getKey(), header.getValue()));
+		}
+		request.append("\r\n");
+
+		output.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+		output.flush();
+	}
+
+	/**
+	 * Returns the first value of a header, ignoring the case of the header name.
+	 *
+	 * @param headers the HTTP/1.1 headers
+	 * @param name    the header name
+	 * @return the first header value or {@code null} if not present
+	 */
+	public static String getHeader(Map<String, List<String>> headers, String name) {
+		for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+			if (name.equalsIgnoreCase(entry.getKey()) && !entry.getValue().isEmpty()) {
+				return entry.getValue().get(0);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns whether the connection may be reused after this response.
+	 *
+	 * @param headers the HTTP/1.1 headers of the response
+	 * @return {@code true} if the connection can be kept alive
+	 */
+	private static boolean isKeepAlive(Map<String, List<String>> headers) {
+		if (!hasBodyFraming(headers)) {
+			return false;
+		}
+		String status = headers.get(null).get(0);
+		String connection = getHeader(headers, "Connection");
+		if (status.startsWith("HTTP/1.0")) {
+			return connection != null && connection.equalsIgnoreCase("keep-alive");
+		}
+		return connection == null || !connection.equalsIgnoreCase("close");
+	}
+
+	/**
+	 * Gets the header fields from a connection stream, leaving the stream
+	 * positioned at the start of the body.
+	 *
+	 * @param response the input stream of a connection
+	 * @return a map of header fields to a list of header values
+	 * @throws IOException if unable to read from the connection
+	 */
+	public static Map<String, List<String>> getHeaderFields(InputStream response) throws IOException {
+		Map<String, List<String>> results = new HashMap<>();
+
+		String line = readLine(response);
+		if (line == null) {
+			throw new EOFException("connection closed before response");
+		}
+		results.put(null, List.of(line));
+
+		while ((line = readLine(response)) != null && !line.isBlank()) {
+			String[] split = line.split(":\\s*", 2);
+			if (split.length == 2) {
+				results.putIfAbsent(split[0], new ArrayList<>());
+				results.get(split[0]).add(split[1]);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Returns whether the end of the body is known without closing the
+	 * connection, either because there is no body, or because it is chunked or
+	 * has a "Content-Length" header.
+	 *
+	 * @param headers the HTTP/1.1 headers of the response
+	 * @return {@code true} if the body is framed
+	 */
+	private static boolean hasBodyFraming(Map<String, List<String>> headers) {
+		return !hasBody(headers) || isChunked(headers) || getHeader(headers, "Content-Length") != null;
+	}
+
+	/**
+	 * Returns whether the response status allows a body.
+	 *
+	 * @param headers the HTTP/1.1 headers of the response
+	 * @return {@code true} if the response may have a body
+	 */
+	private static boolean hasBody(Map<String, List<String>> headers) {
+		int status = HtmlFetcher.getStatusCode(headers);
+		return !(status == 204 || status == 304 || (status >= 100 && status < 200));
+	}
+
+	/**
+	 * Returns whether the response uses chunked transfer encoding.
+	 *
+	 * @param headers the HTTP/1.1 headers of the response
+	 * @return {@code true} if the body is chunked
+	 */
+	private static boolean isChunked(Map<String, List<String>> headers) {
+		String encoding = getHeader(headers, "Transfer-Encoding");
+		return encoding != null && encoding.toLowerCase().contains("chunked");
+	}
+
+	/**
+	 * Reads the body of a response, giving up as soon as it is known to be larger
+	 * than the maximum number of bytes. If the body is not framed, reads until
+	 * the server closes the connection.
+	 *
+	 * @param response the input stream positioned at the start of the body
+	 * @param headers  the headers of the response
+	 * @param maxBytes the maximum number of body bytes to read
+	 * @return the body bytes, or {@code null} if the body is too large
+	 * @throws IOException if unable to read from the connection
+	 */
+	private static byte[] getBody(InputStream response, Map<String, List<String>> headers, long maxBytes)
+			throws IOException {
+		String length = getHeader(headers, "Content-Length");
+
+		if (!hasBody(headers)) {
+			return new byte[0];
+		} else if (isChunked(headers)) {
+			return readChunked(response, maxBytes);
+		} else if (length != null) {
+			long bytes = parseLength(length, 10);
+			return bytes > maxBytes ? null : readFully(response, bytes);
+		}
+
+		byte[] body = response.readNBytes(readLimit(maxBytes));
+		return body.length > maxBytes ? null : body;
+	}
+
+	/**
+	 * Returns how many bytes to read to find out whether a body is larger than
+	 * the maximum: one more than the maximum, or as many as an array can hold.
+	 *
+	 * @param maxBytes the maximum number of body bytes
+	 * @return the number of bytes to read
+	 */
+	private static int readLimit(long maxBytes) {
+		if (maxBytes >= Integer.MAX_VALUE - 8) {
+			return Integer.MAX_VALUE - 8;
+		}
+		return (int) Math.max(0, maxBytes + 1);
+	}
+
+	/**
+	 * Removes a gzip or deflate content encoding from the body. The decoded body
+	 * is subject to the same maximum size as the encoded one.
+	 *
+	 * @param body     the body as received
+	 * @param headers  the headers of the response
+	 * @param maxBytes the maximum number of decoded bytes
+	 * @return the decoded body, or {@code null} if it is too large
+	 * @throws IOException if the body is not valid for its content encoding
+	 */
+	private static byte[] decode(byte[] body, Map<String, List<String>> headers, long maxBytes) throws IOException {
+		String encoding = getHeader(headers, "Content-Encoding");
+		if (encoding == null || body.length == 0) {
+			return body;
+		}
+
+		encoding = encoding.strip().toLowerCase();
+		int limit = readLimit(maxBytes);
+		byte[] decoded;
+
+		if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+			try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(body))) {
+				decoded = input.readNBytes(limit);
+			}
+		} else if (encoding.equals("deflate")) {
+			try (InputStream input = new InflaterInputStream(new ByteArrayInputStream(body))) {
+				decoded = input.readNBytes(limit);
+			} catch (ZipException e) {
+				// some servers send raw deflate data without the zlib wrapper
+				Inflater inflater = new Inflater(true);
+				try (InputStream input = new InflaterInputStream(new ByteArrayInputStream(body), inflater)) {
+					decoded = input.readNBytes(limit);
+				} finally {
+					inflater.end();
+				}
+			}
+		} else {
+			return body;
+		}
+
+		return decoded.length > maxBytes ? null : decoded;
+	}
+
+	/**
+	 * Skips the body of a response that is not needed. Small framed bodies (such
+	 * as the usual redirect or error page) are read and discarded so the
+	 * connection can be reused; anything else is left unread.
+	 *
+	 * @param response the input stream positioned at the start of the body
+	 * @param headers  the headers of the response
+	 * @return {@code true} if the body was skipped and the connection is reusable
+	 * @throws IOException if unable to read from the connection
+	 */
+	private static boolean skipBody(InputStream response, Map<String, List<String>> headers) throws IOException {
+		String length = getHeader(headers, "Content-Length");
+
+		if (!hasBody(headers)) {
+			return true;
+		} else if (isChunked(headers)) {
+			return readChunked(response, DRAIN_LIMIT) != null;
+		} else if (length != null) {
+			long bytes = parseLength(length, 10);
+			if (bytes <= DRAIN_LIMIT) {
+				readFully(response, bytes);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads a body using chunked transfer encoding, including any trailers.
+	 *
+	 * @param response the input stream positioned at the first chunk
+	 * @param maxBytes the maximum number of body bytes to read
+	 * @return the decoded body, or {@code null} if the body is too large
+	 * @throws IOException if unable to read from the connection
+	 */
+	private static byte[] readChunked(InputStream response, long maxBytes) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		while (true) {
+			String line = readLine(response);
+			if (line == null) {
+				throw new EOFException("connection closed inside chunked body");
+			}
+			int extension = line.indexOf(';');
+			String size = (extension < 0 ? line : line.substring(0, extension)).strip();
+			long length = parseLength(size, 16);
+			if (length == 0) {
+				break;
+			}
+			if (length > maxBytes - body.size()) {
+				return null;
+			}
+			body.write(readFully(response, length));
+			readLine(response);
+		}
+		String trailer;
+		while ((trailer = readLine(response)) != null && !trailer.isEmpty()) {
+			// trailers are not used
+		}
+		return body.toByteArray();
+	}
+
+	/**
+	 * Reads exactly the given number of bytes.
+	 *
+	 * @param response the input stream
+	 * @param length   the number of bytes to read
+	 * @return the bytes read
+	 * @throws IOException if the stream ends early
+	 */
+	private static byte[] readFully(InputStream response, long length) throws IOException {
+		if (length > Integer.MAX_VALUE - 8) {
+			throw new IOException("body of " + length + " bytes is too large to read");
+		}
+		byte[] bytes = response.readNBytes((int) length);
+		if (bytes.length < length) {
+			throw new EOFException("expected " + length + " bytes but got " + bytes.length);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Parses a body or chunk length sent by the server.
+	 *
+	 * @param value the length as sent
+	 * @param radix 10 for a "Content-Length" header, 16 for a chunk size
+	 * @return the length
+	 * @throws IOException if the length is not a non-negative number
+	 */
+	private static long parseLength(String value, int radix) throws IOException {
+		try {
+			long length = Long.parseLong(value.strip(), radix);
+			if (length >= 0) {
+				return length;
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new IOException("invalid length in response: " + value);
+	}
+
+	/**
+	 * Reads a single CRLF (or LF) terminated line as ISO-8859-1.
+	 *
+	 * @param input the input stream
+	 * @return the line without its terminator, or {@code null} at end of stream
+	 * @throws IOException if unable to read from the stream, or if the line is
+	 *                     longer than {@link #LINE_LIMIT}
+	 */
+	private static String readLine(InputStream input) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = input.read()) != -1) {
+			if (b == '\n') {
+				int last = line.length() - 1;
+				if (last >= 0 && line.charAt(last) == '\r') {
+					line.setLength(last);
+				}
+				return line.toString();
+			}
+			if (line.length() >= LINE_LIMIT) {
+				throw new IOException("line longer than " + LINE_LIMIT + " bytes in response");
+			}
+			line.append((char) b);
+		}
+		return line.length() == 0 ? null : line.toString();
+	}
+
 	/**
 	 * Gets the header fields from a reader associated with a socket connection.
 	 * Requires that the socket reader has not yet been used, otherwise this
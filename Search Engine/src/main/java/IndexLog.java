@@ -0,0 +1,240 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An append-only log of records on disk, used as a write-ahead log. Records are
+ * framed with their length and a checksum, so a record torn by a crash is
+ * detected and dropped when the log is replayed.
+ *
+ * Appending only buffers a record in memory. {@link #sync(long)} makes it
+ * durable with group commit: the first waiting thread writes and forces every
+ * buffered record to disk at once while the others wait for it, so concurrent
+ * writers share a single {@link FileChannel#force(boolean)}.
+ *
+ * @see LoggedInvertedIndex
+ */
+public class IndexLog implements AutoCloseable {
+
+	/**
+	 * Initialize Logger
+	 */
+	private final static Logger log = LogManager.getRootLogger();
+
+	/** The log file. */
+	private final Path path;
+
+	/** The channel used to write and force the log file. */
+	private final FileChannel channel;
+
+	/** Framed records appended but not written yet. */
+	private final ByteArrayOutputStream pending;
+
+	/** Framed records appended but not written yet, as data. */
+	private final DataOutputStream pendingData;
+
+	/** Number of records appended so far. */
+	private long appended;
+
+	/** Number of records known to be on disk. */
+	private long durable;
+
+	/** Whether a thread is currently writing records. */
+	private boolean flushing;
+
+	/** The error that made the log unusable, or {@code null}. */
+	private IOException failure;
+
+	/**
+	 * Opens the log file, creating it if needed. New records are appended after
+	 * the existing ones.
+	 *
+	 * @param path the log file
+	 * @throws IOException if unable to open the file
+	 */
+	public IndexLog(Path path) throws IOException {
+		this.path = path;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this.pending = new ByteArrayOutputStream();
+		this.pendingData = new DataOutputStream(pending);
+		this.appended = 0;
+		this.durable = 0;
+		this.flushing = false;
+		this.failure = null;
+		this.channel.position(channel.size());
+	}
+
+	/**
+	 * Reads every intact record from the start of the log. A torn or corrupt
+	 * record at the end (from a crash while writing) is cut off, so new records
+	 * are appended after the last intact one. Must be called before anything is
+	 * appended.
+	 *
+	 * @param consumer receives the records in the order they were appended
+	 * @return the number of records read
+	 * @throws IOException if unable to read the log
+	 */
+	public synchronized int replay(Consumer<byte[]> consumer) throws IOException {
+		long valid = 0;
+		int count = 0;
+		channel.position(0);
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+		try {
+			while (true) {
+				int length = in.readInt();
+				long checksum = in.readInt() & 0xFFFFFFFFL;
+				if (length < 0 || length > channel.size() - valid) {
+					break;
+				}
+				byte[] record = new byte[length];
+				in.readFully(record);
+				if (checksum(record) != checksum) {
+					break;
+				}
+				consumer.accept(record);
+				valid += Integer.BYTES * 2 + length;
+				count++;
+			}
+		} catch (EOFException e) {
+			// end of the log
+		}
+
+		if (valid < channel.size()) {
+			log.warn("Dropping " + (channel.size() - valid) + " bytes of incomplete records from " + path);
+			channel.truncate(valid);
+			channel.force(true);
+		}
+		channel.position(valid);
+		return count;
+	}
+
+	/**
+	 * Adds a record to the log. The record is not durable until
+	 * {@link #sync(long)} returns for its sequence number.
+	 *
+	 * @param record the record
+	 * @return the sequence number of the record
+	 */
+	public synchronized long append(byte[] record) {
+		try {
+			pendingData.writeInt(record.length);
+			pendingData.writeInt((int) checksum(record));
+			pendingData.write(record);
+		} catch (IOException e) {
+			// writing to memory does not fail
+			throw new IllegalStateException(e);
+		}
+		return ++appended;
+	}
+
+	/**
+	 * Waits until the record with the given sequence number (and every record
+	 * before it) is on disk, writing the buffered records if no other thread is.
+	 *
+	 * @param sequence the sequence number returned by {@link #append(byte[])}
+	 * @throws IOException if unable to write the log
+	 */
+	public void sync(long sequence) throws IOException {
+		while (true) {
+			byte[] batch;
+			long last;
+			synchronized (this) {
+				while (flushing && durable < sequence && failure == null) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted while waiting for " + path);
+					}
+				}
+				if (failure != null) {
+					throw new IOException("Unable to write to " + path, failure);
+				}
+				if (durable >= sequence) {
+					return;
+				}
+				flushing = true;
+				batch = pending.toByteArray();
+				pending.reset();
+				last = appended;
+			}
+
+			IOException error = null;
+			try {
+				ByteBuffer buffer = ByteBuffer.wrap(batch);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(false);
+			} catch (IOException e) {
+				error = e;
+			}
+
+			synchronized (this) {
+				flushing = false;
+				if (error == null) {
+					durable = last;
+				} else {
+					failure = error;
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Empties the log, after its records were saved somewhere else (for example
+	 * in a snapshot). Records appended but not yet written are dropped and
+	 * count as durable.
+	 *
+	 * @throws IOException if unable to truncate the log
+	 */
+	public synchronized void truncate() throws IOException {
+		while (flushing) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for " + path);
+			}
+		}
+		pending.reset();
+		channel.truncate(0);
+		channel.position(0);
+		channel.force(true);
+		durable = appended;
+		notifyAll();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Returns the checksum of a record.
+	 *
+	 * @param record the record
+	 * @return the CRC-32 of the record
+	 */
+	private static long checksum(byte[] record) {
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,404 @@
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps the index of a directory current by watching it for changes. Events
+ * are collected until the directory has been quiet for the debounce delay, so
+ * a burst of changes (for example a checkout or an editor saving a file in
+ * several steps) is handled once. Only the text files that were created,
+ * modified or deleted are reindexed, each one atomically replacing its old
+ * postings, so searches can keep running against the index meanwhile.
+ *
+ * @see InvertedIndexAdder
+ * @see WatchService
+ *
+ * @author stephen
+ *
+ */
+public class IndexWatcher implements Runnable {
+
+	/**
+	 * Initalize the Logger
+	 */
+	private final static Logger log = LogManager.getRootLogger();
+
+	/**
+	 * The default delay in milliseconds without changes before reindexing
+	 */
+	public static final int DEFAULT_DEBOUNCE = 500;
+
+	/**
+	 * Changes are handled at the latest after this many debounce delays, even if
+	 * the directory keeps changing
+	 */
+	private static final int MAX_DELAYS = 20;
+
+	/**
+	 * the index being kept current
+	 */
+	private final ThreadSafeInvertedIndex index;
+
+	/**
+	 * the work queue used to reindex files, which may be shared with other work
+	 */
+	private final WorkQueue queue;
+
+	/**
+	 * lock and condition used to wait for the reindex tasks of this watcher
+	 */
+	private final Object idle;
+
+	/**
+	 * number of reindex tasks queued or running. The queue may be running
+	 * other work too, so only these tasks are waited for.
+	 */
+	private int working;
+
+	/**
+	 * whether to rescan the directory once before watching it
+	 */
+	private volatile boolean rescan;
+
+	/**
+	 * the directory being watched
+	 */
+	private final Path root;
+
+	/**
+	 * delay in milliseconds without changes before reindexing
+	 */
+	private final long debounce;
+
+	/**
+	 * the watch service all directories are registered with
+	 */
+	private final WatchService watcher;
+
+	/**
+	 * the directory of each registered watch key
+	 */
+	private final HashMap<WatchKey, Path> directories;
+
+	/**
+	 * Constructor, registers every directory under the root
+	 *
+	 * @param index    the index built from the root
+	 * @param queue    the work queue used to reindex files
+	 * @param root     the directory to watch
+	 * @param debounce delay in milliseconds without changes before reindexing
+	 * @throws IOException if unable to watch the directory
+	 */
+	public IndexWatcher(ThreadSafeInvertedIndex index, WorkQueue queue, Path root, long debounce) throws IOException {
+		this.index = index;
+		this.queue = queue;
+		this.root = root;
+		this.debounce = Math.max(1, debounce);
+		this.watcher = root.getFileSystem().newWatchService();
+		this.directories = new HashMap<>();
+		this.idle = new Object();
+		this.working = 0;
+		this.rescan = false;
+		register(root);
+	}
+
+	/**
+	 * Sets whether to rescan the directory once before watching it, for an
+	 * index that was not built from the directory as it is now (for example
+	 * one recovered from a log), so changes made meanwhile are picked up.
+	 *
+	 * @param rescan whether to rescan the directory when starting
+	 */
+	public void setRescan(boolean rescan) {
+		this.rescan = rescan;
+	}
+
+	/**
+	 * Watches for changes until interrupted or closed.
+	 */
+	@Override
+	public void run() {
+		try {
+			if (rescan) {
+				rescan();
+			}
+			while (!Thread.currentThread().isInterrupted()) {
+				LinkedHashMap<Path, WatchEvent.Kind<?>> changes = new LinkedHashMap<>();
+				boolean overflow = collect(watcher.take(), changes);
+
+				// wait for the burst of changes to end
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounce * MAX_DELAYS);
+				WatchKey key;
+				while (System.nanoTime() < deadline && (key = watcher.poll(debounce, TimeUnit.MILLISECONDS)) != null) {
+					overflow |= collect(key, changes);
+				}
+
+				if (overflow) {
+					rescan();
+				} else {
+					update(changes);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// closed, stop watching
+		}
+	}
+
+	/**
+	 * Stops watching the directory.
+	 *
+	 * @throws IOException if unable to close the watch service
+	 */
+	public void close() throws IOException {
+		watcher.close();
+	}
+
+	/**
+	 * Registers a directory and every directory under it with the watch service.
+	 *
+	 * @param directory the directory
+	 * @throws IOException if unable to register the directories
+	 */
+	private void register(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : paths.filter(Files::isDirectory).collect(Collectors.toList())) {
+				directories.put(path.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), path);
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Adds the events of a watch key to the changes and resets the key.
+	 *
+	 * @param key     the signalled watch key
+	 * @param changes the changed paths and the kind of change
+	 * @return {@code true} if events were lost and the directory must be
+	 *         rescanned
+	 */
+	private boolean collect(WatchKey key, Map<Path, WatchEvent.Kind<?>> changes) {
+		boolean overflow = false;
+		Path directory = directories.get(key);
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				overflow = true;
+			} else if (directory != null) {
+				Path path = directory.resolve((Path) event.context());
+				// a path that was created in this burst is still new, whatever happened next
+				if (changes.get(path) != ENTRY_CREATE) {
+					changes.put(path, event.kind());
+				}
+			}
+		}
+
+		if (!key.reset()) {
+			// the directory was deleted
+			directories.remove(key);
+		}
+		return overflow;
+	}
+
+	/**
+	 * Reindexes the changed text files, indexes new directories and removes
+	 * deleted files and directories.
+	 *
+	 * @param changes the changed paths and the kind of change
+	 */
+	private void update(Map<Path, WatchEvent.Kind<?>> changes) {
+		int updated = 0;
+		int removed = 0;
+
+		for (Map.Entry<Path, WatchEvent.Kind<?>> change : changes.entrySet()) {
+			Path path = change.getKey();
+			if (Files.isDirectory(path)) {
+				if (change.getValue() == ENTRY_CREATE) {
+					try {
+						register(path);
+						updated += reindexAll(path);
+					} catch (IOException e) {
+						log.warn("Could not watch new directory: " + path);
+					}
+				}
+			} else if (Files.isRegularFile(path)) {
+				if (InvertedIndexAdder.isTextFile(path)) {
+					execute(new Task(path));
+					updated++;
+				}
+			} else {
+				removed += remove(path);
+			}
+		}
+
+		finish();
+		index.freeze();
+		if (updated > 0 || removed > 0) {
+			log.info("Reindexed " + updated + " and removed " + removed + " files under " + root);
+		}
+	}
+
+	/**
+	 * Reindexes every file under the root and removes the files that no longer
+	 * exist, used when change events were lost.
+	 */
+	private void rescan() {
+		int removed = 0;
+		for (String location : index.getCountMap().keySet()) {
+			Path path = Path.of(location);
+			if (path.startsWith(root) && !Files.isRegularFile(path)) {
+				removed += remove(path);
+			}
+		}
+
+		try {
+			register(root);
+			int updated = reindexAll(root);
+			finish();
+			index.freeze();
+			log.info("Rescanned " + root + ", reindexed " + updated + " and removed " + removed + " files");
+		} catch (IOException e) {
+			finish();
+			index.freeze();
+			log.warn("Could not rescan " + root);
+		}
+	}
+
+	/**
+	 * Queues every text file under a directory to be reindexed.
+	 *
+	 * @param directory the directory
+	 * @return the number of files queued
+	 * @throws IOException if unable to list the directory
+	 */
+	private int reindexAll(Path directory) throws IOException {
+		List<Path> files;
+		try (Stream<Path> paths = Files.walk(directory)) {
+			files = paths.filter(Files::isRegularFile).filter(InvertedIndexAdder::isTextFile)
+					.collect(Collectors.toList());
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		for (Path file : files) {
+			execute(new Task(file));
+		}
+		return files.size();
+	}
+
+	/**
+	 * Queues a reindex task, counting it as working until it has run.
+	 *
+	 * @param task the task
+	 */
+	private void execute(Task task) {
+		synchronized (idle) {
+			working++;
+		}
+		queue.execute(() -> {
+			try {
+				task.run();
+			} finally {
+				synchronized (idle) {
+					if (--working == 0) {
+						idle.notifyAll();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits until the reindex tasks of this watcher have run. Other work in the
+	 * queue, such as a crawl sharing it, is not waited for.
+	 */
+	private void finish() {
+		synchronized (idle) {
+			while (working > 0) {
+				try {
+					idle.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a deleted file from the index, or every file under a deleted
+	 * directory.
+	 *
+	 * @param path the deleted path
+	 * @return the number of files removed
+	 */
+	private int remove(Path path) {
+		if (index.remove(path.toString())) {
+			return 1;
+		}
+		int removed = 0;
+		for (String location : index.getCountMap().keySet()) {
+			if (Path.of(location).startsWith(path) && index.remove(location)) {
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Task for the workqueue, reindexes a single file
+	 *
+	 * @author stephen
+	 *
+	 */
+	private class Task implements Runnable {
+
+		/**
+		 * path
+		 */
+		private final Path path;
+
+		/**
+		 * Constructor
+		 *
+		 * @param path the path
+		 */
+		public Task(Path path) {
+			this.path = path;
+		}
+
+		@Override
+		public void run() {
+			try {
+				InvertedIndex local = new InvertedIndex();
+				InvertedIndexAdder.addToIndex(path, local);
+				index.replace(path.toString(), local);
+			} catch (IOException e) {
+				// deleted again before it could be read
+				index.remove(path.toString());
+				log.warn("Could not reindex given path: " + path);
+			}
+		}
+	}
+}
@@ -1,12 +1,29 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /** 
  * Class responsible for storing the Inverted Index Data structure.
@@ -35,290 +52,2732 @@ public class InvertedIndex {
 		 */
 		private double score;
 
+		/**
+		 * The sum of the weighted scores of the stems found
+		 */
+		private double sum;
+
+		/**
+		 * The scorer
+		 */
+		private final Scorer scorer;
+
+		/**
+		 * The number of words at the location
+		 */
+		private final int length;
+
+		/**
+		 * The average number of words at a location
+		 */
+		private final double average;
+
 		/**
 		 * Constructor, initialize everything to 0 and pass in the location
 		 * 
 		 * @param where where the result is
 		 */
 		public Result(String where) {
+			this(where, InvertedIndex.this.scorer);
+		}
+
+		/**
+		 * Constructor for a result ranked by the given scorer
+		 * 
+		 * @param where  where the result is
+		 * @param scorer the scorer
+		 */
+		private Result(String where, Scorer scorer) {
 			this.where = where;
 			this.count = 0;
 			this.score = 0;
+			this.sum = 0;
+			this.scorer = scorer;
+			Document document = documents.get(where);
+			this.length = document == null ? countMap.getOrDefault(where, 0) : lengths[document.id];
+			this.average = averageLength();
+		}
+
+		/**
+		 * Getter for where the result is
+		 * 
+		 * @return String
+		 */
+		public String getWhere() {
+			return this.where;
+		}
+
+		/**
+		 * Getter for the count
+		 * 
+		 * @return Integer
+		 */
+		public Integer getCount() {
+			return this.count;
+		}
+
+		/**
+		 * Getter for the score
+		 * 
+		 * @return double
+		 */
+		public double getScore() {
+			return this.score;
+		}
+
+		/**
+		 * Positions of the matches, each tagged with the number of the query clause
+		 * it matched, kept only for the proximity boost
+		 */
+		private long[] hits;
+
+		/**
+		 * Number of positions in hits
+		 */
+		private int hitCount;
+
+		/**
+		 * Adds the matches of a stem to the count and recalculates the score
+		 * 
+		 * @param matches the number of matches
+		 * @param weight  the weight of the stem
+		 */
+		private void addMatches(int matches, double weight) {
+			this.count += matches;
+			this.sum += weight * scorer.score(matches, length, average);
+			this.score = scorer.total(sum, length);
+		}
+
+		/**
+		 * Remembers the positions matched by a query clause, for the proximity boost
+		 * 
+		 * @param clause    the number of the clause
+		 * @param positions the matched positions
+		 */
+		private void addHits(int clause, int[] positions) {
+			if (hits == null) {
+				hits = new long[Math.max(4, positions.length)];
+			} else if (hitCount + positions.length > hits.length) {
+				hits = Arrays.copyOf(hits, Math.max(hits.length * 2, hitCount + positions.length));
+			}
+			for (int position : positions) {
+				hits[hitCount++] = (long) position << 32 | clause;
+			}
+		}
+
+		/**
+		 * Raises the score of a location by how close together the matches of
+		 * different query clauses are. The score is multiplied by 1 + weight /
+		 * distance, where distance is the smallest number of positions between
+		 * matches of two different clauses, so adjacent matches count the most.
+		 * Locations matching a single clause are not boosted.
+		 * 
+		 * @param weight the proximity weight
+		 */
+		private void boost(double weight) {
+			if (hitCount < 2) {
+				return;
+			}
+			Arrays.sort(hits, 0, hitCount);
+			// the closest pair of different clauses is always next to each other
+			long closest = Long.MAX_VALUE;
+			for (int i = 1; i < hitCount; i++) {
+				if ((int) hits[i] != (int) hits[i - 1]) {
+					closest = Math.min(closest, (hits[i] >> 32) - (hits[i - 1] >> 32));
+				}
+			}
+			if (closest != Long.MAX_VALUE) {
+				this.score *= 1 + weight / Math.max(1, closest);
+			}
+			hits = null;
+			hitCount = 0;
+		}
+
+		@Override
+		public int compareTo(Result result) {
+			if (this.score == result.score && this.count == result.count) {
+				return this.where.compareToIgnoreCase(result.where);
+			} else if (this.score == result.score) {
+				return Integer.compare(result.count, this.count);
+			} else {
+				return Double.compare(result.score, this.score);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "where=" + where + ", count=" + count + ", score=" + score;
+		}
+
+	}
+
+	/**
+	 * The stems a prefix expands to in a partial search
+	 */
+	private static class Expansion {
+
+		/**
+		 * The stems, in sorted order
+		 */
+		private final List<String> stems;
+
+		/**
+		 * Whether stems were left out because of the expansion limit
+		 */
+		private final boolean truncated;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param stems     the stems, in sorted order
+		 * @param truncated whether stems were left out
+		 */
+		public Expansion(List<String> stems, boolean truncated) {
+			this.stems = stems;
+			this.truncated = truncated;
+		}
+	}
+
+	/**
+	 * The postings of one stem ordered by how much they add to the score of
+	 * their location, highest first
+	 */
+	private static class ImpactPostings {
+
+		/**
+		 * The locations
+		 */
+		private final String[] locations;
+
+		/**
+		 * The number of matches in each location
+		 */
+		private final int[] matches;
+
+		/**
+		 * What the stem adds to the score of each location, before its weight
+		 */
+		private final double[] impacts;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param size the number of postings
+		 */
+		public ImpactPostings(int size) {
+			this.locations = new String[size];
+			this.matches = new int[size];
+			this.impacts = new double[size];
+		}
+	}
+
+	/**
+	 * The postings of every stem ordered by impact, as computed by one scorer
+	 */
+	private static class ImpactOrder {
+
+		/**
+		 * The scorer the impacts were computed with
+		 */
+		private final Scorer scorer;
+
+		/**
+		 * The postings of each stem
+		 */
+		private final HashMap<String, ImpactPostings> postings;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param scorer the scorer the impacts were computed with
+		 */
+		public ImpactOrder(Scorer scorer) {
+			this.scorer = scorer;
+			this.postings = new HashMap<>();
+		}
+	}
+
+	/**
+	 * The weights of stems and the bounds on their scores under one scorer
+	 */
+	private static class Statistics {
+
+		/**
+		 * The weight of each stem, kept until the index changes
+		 */
+		private final ConcurrentHashMap<String, Double> weights;
+
+		/**
+		 * The most each stem adds to the score of a location, before its weight.
+		 * Kept until the stem is added to, since removing locations or adding other
+		 * words can only lower it.
+		 */
+		private final ConcurrentHashMap<String, Double> bounds;
+
+		/**
+		 * Constructor
+		 */
+		public Statistics() {
+			this.weights = new ConcurrentHashMap<>();
+			this.bounds = new ConcurrentHashMap<>();
+		}
+	}
+
+	/**
+	 * A location in the index
+	 */
+	private static class Document {
+
+		/**
+		 * The document number, also its bit in the set of removed documents
+		 */
+		private final int id;
+
+		/**
+		 * The words found at the location, so it can be purged without looking
+		 * at every word in the index
+		 */
+		private final HashSet<String> words;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param id the document number
+		 */
+		public Document(int id) {
+			this.id = id;
+			this.words = new HashSet<>();
+		}
+	}
+
+	/**
+	 * A query clause bound to the postings of its stems, so it can be evaluated
+	 * one location at a time
+	 */
+	private class Operand {
+
+		/**
+		 * The clause
+		 */
+		private final Query.Clause clause;
+
+		/**
+		 * For a word, phrase or NEAR clause, the stems of the index each of its
+		 * stems matches
+		 */
+		private final List<List<String>> expansions;
+
+		/**
+		 * For a word, phrase or NEAR clause, the postings of each of its stems,
+		 * one map per stem of the index the query stem matches
+		 */
+		private final List<List<Map<String, TreeSet<Integer>>>> postings;
+
+		/**
+		 * For an AND, OR or NOT clause, the bound children. The children of an
+		 * AND clause are ordered from the fewest locations to the most, with NOT
+		 * clauses last.
+		 */
+		private final List<Operand> children;
+
+		/**
+		 * The estimated number of locations matching the clause
+		 */
+		private final int estimate;
+
+		/**
+		 * Whether a stem of the clause only expanded to its most common stems
+		 */
+		private boolean truncated;
+
+		/**
+		 * Binds a clause to the index
+		 * 
+		 * @param clause the clause
+		 * @param exact  whether the stems must match exactly or as a prefix
+		 */
+		public Operand(Query.Clause clause, boolean exact) {
+			this.clause = clause;
+			this.expansions = new ArrayList<>();
+			this.postings = new ArrayList<>();
+			this.children = new ArrayList<>();
+			this.truncated = false;
+
+			long estimate = 0;
+			switch (clause.getType()) {
+			case AND:
+				estimate = Integer.MAX_VALUE;
+				for (Query.Clause child : clause.getChildren()) {
+					Operand operand = new Operand(child, exact);
+					children.add(operand);
+					if (!operand.isNegated()) {
+						estimate = Math.min(estimate, operand.estimate);
+					}
+				}
+				children.sort(Comparator.comparing(Operand::isNegated).thenComparingInt(operand -> operand.estimate));
+				// with only NOT children, the clause may match every location
+				estimate = estimate == Integer.MAX_VALUE ? countMap.size() : estimate;
+				break;
+			case OR:
+				for (Query.Clause child : clause.getChildren()) {
+					Operand operand = new Operand(child, exact);
+					children.add(operand);
+					estimate += operand.estimate;
+				}
+				break;
+			case NOT:
+				children.add(new Operand(clause.getChildren().get(0), exact));
+				estimate = Math.max(0, countMap.size() - children.get(0).estimate);
+				break;
+			default:
+				estimate = Integer.MAX_VALUE;
+				for (String word : clause.getStems()) {
+					List<String> stems = stems(word, exact);
+					List<Map<String, TreeSet<Integer>>> maps = new ArrayList<>();
+					long locations = 0;
+					for (String stem : stems) {
+						maps.add(index.get(stem));
+						locations += index.get(stem).size();
+					}
+					truncated |= !exact && expand(word).truncated;
+					expansions.add(stems);
+					postings.add(maps);
+					estimate = Math.min(estimate, locations);
+				}
+			}
+			this.estimate = (int) Math.min(Integer.MAX_VALUE, estimate);
+		}
+
+		/**
+		 * Returns whether this is a NOT clause
+		 * 
+		 * @return {@code true} if the clause matches where its child does not
+		 */
+		public boolean isNegated() {
+			return clause.getType() == Query.Type.NOT;
+		}
+
+		/**
+		 * Returns whether every location matching this clause is among its
+		 * {@link #candidates()}. A NOT clause, or an OR clause with a NOT child,
+		 * matches locations none of its stems are found in, so it is not bounded.
+		 * 
+		 * @return {@code true} if the clause is bounded by its postings
+		 */
+		public boolean isBounded() {
+			switch (clause.getType()) {
+			case AND:
+				for (Operand child : children) {
+					if (child.isBounded()) {
+						return true;
+					}
+				}
+				return false;
+			case OR:
+				for (Operand child : children) {
+					if (!child.isBounded()) {
+						return false;
+					}
+				}
+				return true;
+			case NOT:
+				return false;
+			default:
+				return true;
+			}
+		}
+
+		/**
+		 * Adds the word, phrase and NEAR clauses that score a location, which are
+		 * all of them except those under a NOT
+		 * 
+		 * @param leaves the clauses found so far
+		 */
+		public void leaves(List<Operand> leaves) {
+			if (!clause.isBoolean()) {
+				leaves.add(this);
+			} else if (!isNegated()) {
+				for (Operand child : children) {
+					child.leaves(leaves);
+				}
+			}
+		}
+
+		/**
+		 * Returns the number of operands in this clause
+		 * 
+		 * @return the number of operands, including this one
+		 */
+		public int size() {
+			int size = 1;
+			for (Operand child : children) {
+				size += child.size();
+			}
+			return size;
+		}
+
+		/**
+		 * Returns the locations that may match the clause and have a score, some
+		 * of which may not match. A bounded AND clause takes the candidates of its
+		 * most selective bounded child. A clause that is not bounded falls back to
+		 * the locations of every word, phrase and NEAR clause in it, since other
+		 * locations would have no score.
+		 * 
+		 * @return the candidate locations
+		 */
+		public Set<String> candidates() {
+			if (!isBounded()) {
+				ArrayList<Operand> leaves = new ArrayList<>();
+				leaves(leaves);
+				Set<String> union = new HashSet<>();
+				for (Operand leaf : leaves) {
+					union.addAll(leaf.candidates());
+				}
+				return union;
+			}
+
+			switch (clause.getType()) {
+			case AND:
+				for (Operand child : children) {
+					if (child.isBounded()) {
+						return child.candidates();
+					}
+				}
+				return Set.of();
+			case OR:
+				Set<String> union = new HashSet<>();
+				for (Operand child : children) {
+					union.addAll(child.candidates());
+				}
+				return union;
+			default:
+				// every stem of a phrase is found in its locations, so the rarest will do
+				List<Map<String, TreeSet<Integer>>> rarest = postings.isEmpty() ? List.of() : postings.get(0);
+				int fewest = Integer.MAX_VALUE;
+				for (List<Map<String, TreeSet<Integer>>> maps : postings) {
+					int locations = 0;
+					for (Map<String, TreeSet<Integer>> map : maps) {
+						locations += map.size();
+					}
+					if (locations < fewest) {
+						fewest = locations;
+						rarest = maps;
+					}
+				}
+				if (rarest.size() == 1) {
+					return rarest.get(0).keySet();
+				}
+				Set<String> locations = new HashSet<>();
+				for (Map<String, TreeSet<Integer>> map : rarest) {
+					locations.addAll(map.keySet());
+				}
+				return locations;
+			}
+		}
+
+		/**
+		 * Returns the estimated number of {@link #candidates()}.
+		 * 
+		 * @return the estimated number of candidate locations
+		 */
+		public long candidateCount() {
+			if (!isBounded()) {
+				ArrayList<Operand> leaves = new ArrayList<>();
+				leaves(leaves);
+				long count = 0;
+				for (Operand leaf : leaves) {
+					count += leaf.estimate;
+				}
+				return count;
+			}
+			if (clause.getType() == Query.Type.AND) {
+				for (Operand child : children) {
+					if (child.isBounded()) {
+						return child.candidateCount();
+					}
+				}
+			}
+			return estimate;
+		}
+
+		/**
+		 * Returns whether a location matches the clause. The children of an AND
+		 * clause are probed from the most selective, so most locations are
+		 * rejected after one lookup.
+		 * 
+		 * @param location the location
+		 * @return {@code true} if the location matches
+		 */
+		public boolean matches(String location) {
+			switch (clause.getType()) {
+			case AND:
+				for (Operand child : children) {
+					if (!child.matches(location)) {
+						return false;
+					}
+				}
+				return true;
+			case OR:
+				for (Operand child : children) {
+					if (child.matches(location)) {
+						return true;
+					}
+				}
+				return false;
+			case NOT:
+				return !children.get(0).matches(location);
+			case TERM:
+				return inAny(postings.get(0), location);
+			default:
+				return match(location).length > 0;
+			}
+		}
+
+		/**
+		 * Returns the positions a word, phrase or NEAR clause matches in a
+		 * location. The location must have every stem before any positions are
+		 * intersected.
+		 * 
+		 * @param location the location
+		 * @return the sorted positions of the matches, empty if none
+		 */
+		public int[] match(String location) {
+			if (clause.getType() == Query.Type.TERM) {
+				return positions(postings.get(0), location);
+			}
+			if (postings.isEmpty() || !inAll(postings, location)) {
+				return new int[0];
+			}
+			int[][] positions = new int[postings.size()][];
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = positions(postings.get(i), location);
+			}
+			return clause.getType() == Query.Type.PHRASE ? phrase(positions)
+					: near(positions[0], positions[1], clause.getDistance());
+		}
+
+		/**
+		 * Removes the clauses that cannot match any location: words, phrases and
+		 * NEAR clauses with a stem found nowhere, AND clauses with such a child,
+		 * and OR clauses left without children. A NOT of such a clause always
+		 * matches, so it is removed from an AND clause and kept anywhere else.
+		 * 
+		 * @param dropped the removed words, phrases and NEAR clauses so far
+		 * @return the simplified clause, or {@code null} if it cannot match
+		 */
+		public Operand prune(List<Operand> dropped) {
+			switch (clause.getType()) {
+			case AND:
+				for (ListIterator<Operand> iterator = children.listIterator(); iterator.hasNext();) {
+					Operand child = iterator.next();
+					if (child.isNegated()) {
+						Operand inner = child.children.get(0).prune(dropped);
+						if (inner == null) {
+							iterator.remove();
+						} else {
+							child.children.set(0, inner);
+						}
+					} else {
+						Operand pruned = child.prune(dropped);
+						if (pruned == null) {
+							return null;
+						}
+						iterator.set(pruned);
+					}
+				}
+				// with no children left, the clause always matches
+				return children.size() == 1 ? children.get(0) : this;
+			case OR:
+				for (int i = children.size() - 1; i >= 0; i--) {
+					Operand pruned = children.get(i).prune(dropped);
+					if (pruned == null) {
+						children.remove(i);
+					} else {
+						children.set(i, pruned);
+					}
+				}
+				if (children.isEmpty()) {
+					return null;
+				}
+				return children.size() == 1 ? children.get(0) : this;
+			case NOT:
+				Operand inner = children.get(0).prune(dropped);
+				if (inner != null) {
+					children.set(0, inner);
+				}
+				return this;
+			default:
+				if (estimate == 0) {
+					dropped.add(this);
+					return null;
+				}
+				return this;
+			}
+		}
+
+		/**
+		 * Describes how the clause is evaluated, one line per operand
+		 * 
+		 * @param exact   whether the stems match exactly or as a prefix
+		 * @param indent  the indentation of this clause
+		 * @param builder the description so far
+		 */
+		public void describe(boolean exact, String indent, StringBuilder builder) {
+			builder.append(indent);
+			if (clause.isBoolean()) {
+				builder.append(clause.getType());
+				if (!isNegated()) {
+					builder.append(", about ").append(estimate).append(" locations");
+				}
+				builder.append(System.lineSeparator());
+				for (Operand child : children) {
+					child.describe(exact, indent + "  ", builder);
+				}
+				return;
+			}
+
+			builder.append(clause).append(": ");
+			for (int i = 0; i < expansions.size(); i++) {
+				String word = clause.getStems().get(i);
+				List<String> stems = expansions.get(i);
+				if (i > 0) {
+					builder.append(", ");
+				}
+				if (expansions.size() > 1) {
+					builder.append(word).append(' ');
+				}
+				if (exact || (stems.size() == 1 && stems.get(0).equals(word))) {
+					builder.append("exact");
+				} else {
+					builder.append("prefix of ").append(stems.size()).append(" stems");
+				}
+			}
+			builder.append(truncated ? " (truncated), " : ", ");
+			builder.append(clause.getType() == Query.Type.TERM ? "" : "at most ").append(estimate)
+					.append(" locations").append(System.lineSeparator());
+		}
+	}
+
+	/**
+	 * How a query is searched: the query bound to the index with the clauses
+	 * that cannot match removed, and the cheaper of two strategies
+	 */
+	private class Plan {
+
+		/**
+		 * The query
+		 */
+		private final Query query;
+
+		/**
+		 * Whether the stems must match exactly or as a prefix
+		 */
+		private final boolean exact;
+
+		/**
+		 * The simplified query, or {@code null} if nothing can match
+		 */
+		private final Operand root;
+
+		/**
+		 * The word, phrase and NEAR clauses that score a location
+		 */
+		private final List<Operand> leaves;
+
+		/**
+		 * The words, phrases and NEAR clauses found nowhere
+		 */
+		private final List<Operand> dropped;
+
+		/**
+		 * Estimated cost of searching one clause at a time
+		 */
+		private final long termCost;
+
+		/**
+		 * Estimated cost of searching one location at a time
+		 */
+		private final long documentCost;
+
+		/**
+		 * The scorer
+		 */
+		private final Scorer scorer;
+
+		/**
+		 * The weight of each stem a word clause expands to, or the one weight of a
+		 * phrase or NEAR clause, by clause in the order of the leaves
+		 */
+		private final double[][] weights;
+
+		/**
+		 * Plans a search. Searching one clause at a time visits every posting of
+		 * every clause once; a stem several prefixes expand to is only visited
+		 * once. Searching one location at a time visits the candidates of the
+		 * most selective clause and probes every operand for each of them.
+		 * 
+		 * @param query  the query
+		 * @param exact  whether the stems must match exactly or as a prefix
+		 * @param scorer the scorer
+		 */
+		public Plan(Query query, boolean exact, Scorer scorer) {
+			this.query = query;
+			this.exact = exact;
+			this.scorer = scorer;
+			this.leaves = new ArrayList<>();
+			this.dropped = new ArrayList<>();
+
+			List<Query.Clause> clauses = query.getClauses();
+			this.root = clauses.isEmpty() ? null
+					: new Operand(new Query.Clause(Query.Type.OR, clauses), exact).prune(dropped);
+			if (root != null) {
+				root.leaves(leaves);
+			}
+
+			long visits = 0;
+			HashSet<String> visited = new HashSet<>();
+			for (Operand leaf : leaves) {
+				if (leaf.clause.getType() == Query.Type.TERM) {
+					for (String stem : leaf.expansions.get(0)) {
+						if (visited.add(stem)) {
+							visits += index.get(stem).size();
+						}
+					}
+				} else {
+					visits += leaf.candidateCount() * leaf.postings.size();
+				}
+			}
+			if (query.isBoolean()) {
+				// the locations found still have to be checked against the query
+				long found = 0;
+				for (Operand leaf : leaves) {
+					found += leaf.estimate;
+				}
+				visits += found * root.size();
+			}
+			this.termCost = visits;
+			this.documentCost = root == null ? 0 : root.candidateCount() * (root.size() + leaves.size());
+
+			// a phrase or NEAR clause weighs as much as its words, each by its most common stem
+			this.weights = new double[leaves.size()][];
+			for (int i = 0; i < leaves.size(); i++) {
+				Operand leaf = leaves.get(i);
+				if (leaf.clause.getType() == Query.Type.TERM) {
+					List<String> stems = leaf.expansions.get(0);
+					weights[i] = new double[stems.size()];
+					for (int j = 0; j < stems.size(); j++) {
+						weights[i][j] = weight(stems.get(j), scorer);
+					}
+				} else {
+					double weight = 0;
+					for (List<String> stems : leaf.expansions) {
+						double lowest = Double.POSITIVE_INFINITY;
+						for (String stem : stems) {
+							lowest = Math.min(lowest, weight(stem, scorer));
+						}
+						weight += stems.isEmpty() ? 0 : lowest;
+					}
+					weights[i] = new double[] { weight };
+				}
+			}
+		}
+
+		/**
+		 * Returns whether the query is searched one location at a time
+		 * 
+		 * @return {@code true} if that is estimated to be cheaper
+		 */
+		public boolean isDocumentAtATime() {
+			return documentCost < termCost;
+		}
+
+		/**
+		 * Finds every location matching the query and scores it, without sorting
+		 * the results. Either strategy finds the same results. A location is
+		 * scored by the matches of every word, phrase and NEAR clause not under a
+		 * NOT, and locations without any are left out.
+		 * 
+		 * @return the unsorted results
+		 */
+		public ArrayList<Result> execute() {
+			ArrayList<Result> Result = new ArrayList<>();
+			if (root == null) {
+				return Result;
+			}
+			double weight = leaves.size() > 1 ? proximityWeight : 0;
+
+			if (isDocumentAtATime()) {
+				for (String location : root.candidates()) {
+					if (!isLive(location) || !root.matches(location)) {
+						continue;
+					}
+					Result result = new Result(location, scorer);
+					for (int i = 0; i < leaves.size(); i++) {
+						Operand leaf = leaves.get(i);
+						int[] matches = leaf.clause.getType() != Query.Type.TERM || weight > 0 ? leaf.match(location)
+								: null;
+						if (leaf.clause.getType() == Query.Type.TERM) {
+							// every stem is scored on its own, as when searching one stem at a time
+							for (int j = 0; j < weights[i].length; j++) {
+								TreeSet<Integer> positions = leaf.postings.get(0).get(j).get(location);
+								if (positions != null) {
+									result.addMatches(positions.size(), weights[i][j]);
+								}
+							}
+						} else if (matches.length > 0) {
+							result.addMatches(matches.length, weights[i][0]);
+						}
+						if (matches != null && matches.length > 0 && weight > 0) {
+							result.addHits(i, matches);
+						}
+					}
+					if (result.count > 0) {
+						result.boost(weight);
+						Result.add(result);
+					}
+				}
+				return Result;
+			}
+
+			// visit each stem once, however many query words expand to it
+			HashMap<String, List<Integer>> words = new HashMap<>();
+			HashMap<String, Result> total = new HashMap<>();
+			for (int i = 0; i < leaves.size(); i++) {
+				Operand leaf = leaves.get(i);
+				if (leaf.clause.getType() == Query.Type.TERM) {
+					for (String stem : leaf.expansions.get(0)) {
+						words.computeIfAbsent(stem, key -> new ArrayList<>()).add(i);
+					}
+				}
+			}
+			ArrayList<String> stems = new ArrayList<>(words.keySet());
+			stems.sort(Comparator.comparingInt((String stem) -> index.get(stem).size())
+					.thenComparing(Comparator.naturalOrder()));
+			for (String stem : stems) {
+				buildSearch(Result, stem, scorer, total, words.get(stem), weight > 0);
+			}
+
+			for (int i = 0; i < leaves.size(); i++) {
+				Operand leaf = leaves.get(i);
+				if (leaf.clause.getType() == Query.Type.TERM) {
+					continue;
+				}
+				for (String location : leaf.candidates()) {
+					int[] matches = isLive(location) ? leaf.match(location) : new int[0];
+					if (matches.length > 0) {
+						Result result = result(Result, location, total, scorer);
+						result.addMatches(matches.length, weights[i][0]);
+						if (weight > 0) {
+							result.addHits(i, matches);
+						}
+					}
+				}
+			}
+
+			if (query.isBoolean()) {
+				Result.removeIf(result -> !root.matches(result.where));
+			}
+			if (weight > 0) {
+				for (Result result : Result) {
+					result.boost(weight);
+				}
+			}
+			return Result;
+		}
+
+		/**
+		 * Returns whether a prefix of the query expanded to only some of its stems
+		 * 
+		 * @return {@code true} if an expansion was truncated
+		 */
+		public boolean isTruncated() {
+			for (Operand leaf : leaves) {
+				if (leaf.truncated) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Returns whether the best results can be found without scoring every
+		 * location, which needs a score that is a sum over stems: a query of
+		 * words, without AND, NOT, phrases, NEAR clauses or proximity boost
+		 * 
+		 * @return {@code true} if top-k searches can skip locations
+		 */
+		public boolean isPrunable() {
+			if (root == null || query.isBoolean() || (leaves.size() > 1 && proximityWeight > 0)) {
+				return false;
+			}
+			for (Operand leaf : leaves) {
+				if (leaf.clause.getType() != Query.Type.TERM) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Returns one page of the sorted results, finding only the best offset +
+		 * limit of them
+		 * 
+		 * @param offset the number of best results to skip
+		 * @param limit  the maximum number of results to return
+		 * @return the results from offset to offset + limit, best first
+		 */
+		public ArrayList<Result> execute(int offset, int limit) {
+			int k = (int) Math.min(Integer.MAX_VALUE, (long) Math.max(0, offset) + Math.max(0, limit));
+			if (k == 0 || !isPrunable()) {
+				return page(execute(), offset, limit);
+			}
+			ImpactOrder order = impactOrder(counts());
+			ArrayList<Result> best = order == null ? top(k) : top(k, order);
+			return new ArrayList<>(best.subList(Math.min(Math.max(0, offset), best.size()), best.size()));
+		}
+
+		/**
+		 * Returns the stems the words of the query expand to
+		 * 
+		 * @return how many query words expand to each stem
+		 */
+		private HashMap<String, Integer> counts() {
+			HashMap<String, Integer> words = new HashMap<>();
+			for (Operand leaf : leaves) {
+				for (String stem : leaf.expansions.get(0)) {
+					words.merge(stem, 1, Integer::sum);
+				}
+			}
+			return words;
+		}
+
+		/**
+		 * Returns the postings ordered by impact, if they can be used for a query
+		 * of few enough stems
+		 * 
+		 * @param words how many query words expand to each stem
+		 * @return the postings ordered by impact, or {@code null} to use MaxScore
+		 */
+		private ImpactOrder impactOrder(Map<String, Integer> words) {
+			ImpactOrder order = impacts;
+			if (order == null || !order.scorer.equals(scorer) || words.size() > MAX_IMPACT_STEMS) {
+				return null;
+			}
+			return order;
+		}
+
+		/**
+		 * Finds the best k results from the postings ordered by impact. Every stem
+		 * is read from its highest impact down, always the stem whose next posting
+		 * adds the most, and each new location is scored in full. No location not
+		 * read yet can score more than the sum of the next impacts of every stem,
+		 * so the search stops once that is below the worst of k results. The
+		 * results are identical to a full search. Since each location read is
+		 * looked up in the postings of every other stem, a search that reads more
+		 * than the postings of one stem on average falls back to MaxScore.
+		 * 
+		 * @param k     the number of results
+		 * @param order the postings ordered by impact
+		 * @return the best k results, best first
+		 */
+		private ArrayList<Result> top(int k, ImpactOrder order) {
+			HashMap<String, Integer> words = counts();
+			int size = words.size();
+			String[] stems = words.keySet().toArray(new String[0]);
+			ImpactPostings[] postings = new ImpactPostings[size];
+			int[] counts = new int[size];
+			double[] weights = new double[size];
+			int[] next = new int[size];
+			long budget = 0;
+			for (int i = 0; i < size; i++) {
+				postings[i] = order.postings.get(stems[i]);
+				counts[i] = words.get(stems[i]);
+				weights[i] = weight(stems[i], scorer);
+				budget += postings[i].locations.length;
+			}
+			budget /= Math.max(1, size);
+
+			PriorityQueue<Result> best = new PriorityQueue<>(Collections.reverseOrder());
+			HashSet<String> seen = new HashSet<>();
+			while (true) {
+				// the most a location not read yet can score, and the stem to read next
+				double threshold = 0;
+				int stem = -1;
+				for (int i = 0; i < size; i++) {
+					if (next[i] < postings[i].impacts.length) {
+						double impact = counts[i] * weights[i] * postings[i].impacts[next[i]];
+						threshold += impact;
+						if (stem < 0 || impact > counts[stem] * weights[stem] * postings[stem].impacts[next[stem]]) {
+							stem = i;
+						}
+					}
+				}
+				if (stem < 0 || (best.size() == k && below(threshold, best.peek().score))) {
+					break;
+				}
+
+				if (budget-- == 0) {
+					return top(k);
+				}
+				int read = next[stem]++;
+				String location = postings[stem].locations[read];
+				if (!seen.add(location) || !isLive(location)) {
+					continue;
+				}
+				Result result = new Result(location, scorer);
+				for (int i = 0; i < size; i++) {
+					TreeSet<Integer> positions = i == stem ? null : index.get(stems[i]).get(location);
+					int matches = i == stem ? postings[stem].matches[read] : positions == null ? 0 : positions.size();
+					for (int j = 0; matches > 0 && j < counts[i]; j++) {
+						result.addMatches(matches, weights[i]);
+					}
+				}
+				if (best.size() < k) {
+					best.add(result);
+				} else if (result.compareTo(best.peek()) < 0) {
+					best.poll();
+					best.add(result);
+				}
+			}
+
+			ArrayList<Result> sorted = new ArrayList<>();
+			while (!best.isEmpty()) {
+				sorted.add(best.poll());
+			}
+			Collections.reverse(sorted);
+			return sorted;
+		}
+
+		/**
+		 * Finds the best k results with MaxScore. Every stem has a bound on how
+		 * much it can add to a score. Stems are sorted by bound, and once k
+		 * results are found, the stems whose bounds together cannot reach the
+		 * worst of them are no longer walked; they are only looked up for the
+		 * locations the other stems find. A location is dropped as soon as its
+		 * score plus the bounds of the stems not yet looked up falls below the
+		 * worst result. Scores are computed the same way as in a full search, and
+		 * only locations that score strictly below the worst result are skipped,
+		 * so the results are identical.
+		 * 
+		 * @param k the number of results
+		 * @return the best k results, best first
+		 */
+		private ArrayList<Result> top(int k) {
+			// visit each stem once, however many query words expand to it
+			HashMap<String, Integer> words = counts();
+			ArrayList<Cursor> cursors = new ArrayList<>();
+			for (Map.Entry<String, Integer> word : words.entrySet()) {
+				double weight = weight(word.getKey(), scorer);
+				cursors.add(new Cursor(index.get(word.getKey()), word.getValue(), weight,
+						word.getValue() * weight * bound(word.getKey(), scorer)));
+			}
+			cursors.sort(Comparator.comparingDouble((Cursor cursor) -> cursor.bound));
+
+			// sums[i] is the most the stems before i can add to a score together
+			double[] sums = new double[cursors.size() + 1];
+			for (int i = 0; i < cursors.size(); i++) {
+				sums[i + 1] = sums[i] + cursors.get(i).bound;
+			}
+
+			PriorityQueue<Cursor> walked = new PriorityQueue<>();
+			for (Cursor cursor : cursors) {
+				if (cursor.location != null) {
+					walked.add(cursor);
+				}
+			}
+			int essential = 0;
+			PriorityQueue<Result> best = new PriorityQueue<>(Collections.reverseOrder());
+
+			while (!walked.isEmpty()) {
+				String location = walked.peek().location;
+				Result result = isLive(location) ? new Result(location, scorer) : null;
+				while (!walked.isEmpty() && walked.peek().location.equals(location)) {
+					Cursor cursor = walked.poll();
+					if (result != null) {
+						cursor.score(result, cursor.positions.size());
+					}
+					if (cursor.next()) {
+						walked.add(cursor);
+					}
+				}
+				if (result == null) {
+					continue;
+				}
+
+				boolean skip = false;
+				for (int i = essential - 1; i >= 0 && !skip; i--) {
+					skip = below(result.score + sums[i + 1], best.peek().score);
+					if (!skip) {
+						cursors.get(i).score(result, location);
+					}
+				}
+				if (skip) {
+					continue;
+				}
+
+				if (best.size() < k) {
+					best.add(result);
+				} else if (result.compareTo(best.peek()) < 0) {
+					best.poll();
+					best.add(result);
+				} else {
+					continue;
+				}
+
+				// stop walking the stems that cannot lift a location into the results
+				while (best.size() == k && essential < cursors.size()
+						&& below(sums[essential + 1], best.peek().score)) {
+					walked.remove(cursors.get(essential));
+					essential++;
+				}
+			}
+
+			ArrayList<Result> sorted = new ArrayList<>();
+			while (!best.isEmpty()) {
+				sorted.add(best.poll());
+			}
+			Collections.reverse(sorted);
+			return sorted;
+		}
+
+		/**
+		 * Describes the plan: the strategy with the estimated cost of both, and
+		 * how each clause is evaluated
+		 * 
+		 * @return the description
+		 */
+		public String explain() {
+			String newline = System.lineSeparator();
+			StringBuilder builder = new StringBuilder();
+			builder.append(exact ? "exact" : "partial").append(" search for: ").append(query).append(newline);
+			if (root == null) {
+				builder.append("strategy: none, nothing can match").append(newline);
+			} else {
+				builder.append("strategy: ")
+						.append(isDocumentAtATime() ? "document-at-a-time" : "term-at-a-time")
+						.append(" (estimated cost ").append(termCost).append(" term-at-a-time, ")
+						.append(documentCost).append(" document-at-a-time)").append(newline);
+				if (isPrunable() && impactOrder(counts()) != null) {
+					builder.append("top-k: postings ordered by impact, stopping once no location left can be")
+							.append(" among the best").append(newline);
+				} else if (isPrunable()) {
+					builder.append("top-k: MaxScore, skipping locations that cannot be among the best")
+							.append(newline);
+				}
+				root.describe(exact, "  ", builder);
+			}
+			if (!dropped.isEmpty()) {
+				builder.append("dropped, found nowhere:");
+				for (Operand leaf : dropped) {
+					builder.append(' ').append(leaf.clause);
+				}
+				builder.append(newline);
+			}
+			return builder.toString();
+		}
+	}
+
+	/**
+	 * Walks the postings of one stem in location order for MaxScore
+	 */
+	private static class Cursor implements Comparable<Cursor> {
+
+		/**
+		 * The postings of the stem
+		 */
+		private final Map<String, TreeSet<Integer>> postings;
+
+		/**
+		 * The remaining postings
+		 */
+		private final Iterator<Map.Entry<String, TreeSet<Integer>>> iterator;
+
+		/**
+		 * How many query words expand to the stem, each counting its matches
+		 */
+		private final int words;
+
+		/**
+		 * The weight of the stem
+		 */
+		private final double weight;
+
+		/**
+		 * The most the stem can add to the score of a location
+		 */
+		private final double bound;
+
+		/**
+		 * The current location, or {@code null} once every posting was walked
+		 */
+		private String location;
+
+		/**
+		 * The positions of the stem in the current location
+		 */
+		private TreeSet<Integer> positions;
+
+		/**
+		 * Starts walking the postings of a stem
+		 * 
+		 * @param postings the postings, sorted by location
+		 * @param words    how many query words expand to the stem
+		 * @param weight   the weight of the stem
+		 * @param bound    the most the stem can add to a score
+		 */
+		public Cursor(Map<String, TreeSet<Integer>> postings, int words, double weight, double bound) {
+			this.postings = postings;
+			this.iterator = postings.entrySet().iterator();
+			this.words = words;
+			this.weight = weight;
+			this.bound = bound;
+			next();
+		}
+
+		/**
+		 * Moves to the next location
+		 * 
+		 * @return {@code true} if there was another location
+		 */
+		public boolean next() {
+			if (!iterator.hasNext()) {
+				location = null;
+				positions = null;
+				return false;
+			}
+			Map.Entry<String, TreeSet<Integer>> entry = iterator.next();
+			location = entry.getKey();
+			positions = entry.getValue();
+			return true;
+		}
+
+		/**
+		 * Adds the matches of the stem to a result, once per query word
+		 * 
+		 * @param result  the result
+		 * @param matches the number of matches
+		 */
+		public void score(Result result, int matches) {
+			for (int i = 0; i < words; i++) {
+				result.addMatches(matches, weight);
+			}
+		}
+
+		/**
+		 * Looks up the matches of the stem in the location of a result and adds
+		 * them to it
+		 * 
+		 * @param result the result
+		 * @param where  the location of the result
+		 */
+		public void score(Result result, String where) {
+			TreeSet<Integer> found = postings.get(where);
+			if (found != null) {
+				score(result, found.size());
+			}
+		}
+
+		@Override
+		public int compareTo(Cursor other) {
+			return location.compareTo(other.location);
+		}
+	}
+
+	/**
+	 * Index data structure initialization
+	 */
+	private final TreeMap<String, Map<String, TreeSet<Integer>>> index;
+
+	/**
+	 * The default maximum number of stems a prefix expands to, when limited
+	 */
+	public static final int DEFAULT_EXPANSIONS = 1000;
+
+	/**
+	 * The default weight of the proximity boost, when enabled
+	 */
+	public static final double DEFAULT_PROXIMITY = 0.5;
+
+	/**
+	 * Maximum number of stems a query may expand to for its best results to be
+	 * found from the postings ordered by impact, since every location read is
+	 * looked up in the postings of every stem
+	 */
+	public static final int MAX_IMPACT_STEMS = 4;
+
+	/**
+	 * Maximum number of prefix expansions remembered at once
+	 */
+	private static final int MAX_EXPANSIONS = 4096;
+
+	/**
+	 * The count map initialization
+	 */
+	private final TreeMap<String, Integer> countMap;
+
+	/**
+	 * The document of each location in the index, including removed ones until
+	 * the index is compacted
+	 */
+	private final HashMap<String, Document> documents;
+
+	/**
+	 * Tombstones, the numbers of the documents removed since the index was last
+	 * compacted. Their postings are skipped by searches until then.
+	 */
+	private final BitSet deleted;
+
+	/**
+	 * Number of tombstones
+	 */
+	private int tombstones;
+
+	/**
+	 * Number given to the next new document
+	 */
+	private int nextId;
+
+	/**
+	 * Maximum number of stems a prefix expands to in a partial search, or 0 for
+	 * no limit
+	 */
+	private int expansionLimit;
+
+	/**
+	 * The stems each prefix expanded to, kept until the index changes. Concurrent
+	 * so that searches running at the same time can fill it.
+	 */
+	private final ConcurrentHashMap<String, Expansion> expansions;
+
+	/**
+	 * Number of partial searches that used a truncated expansion
+	 */
+	private final AtomicLong truncatedSearches;
+
+	/**
+	 * The weights of stems and bounds on their scores, for each scorer used.
+	 * Concurrent so that searches running at the same time can fill it.
+	 */
+	private final ConcurrentHashMap<Scorer, Statistics> statistics;
+
+	/**
+	 * The scorer used unless a search asks for another
+	 */
+	private Scorer scorer;
+
+	/**
+	 * The number of words of each document, by document number, the same as in
+	 * the count map, so scoring a location needs no lookup by location
+	 */
+	private int[] lengths;
+
+	/**
+	 * The number of words of all locations in the index
+	 */
+	private long totalLength;
+
+	/**
+	 * How often each word was found before it was stemmed, by stem, so that
+	 * suggestions can show words rather than stems
+	 */
+	private final HashMap<String, HashMap<String, Integer>> surfaces;
+
+	/**
+	 * Whether to keep the postings ordered by impact
+	 */
+	private boolean impactOrdered;
+
+	/**
+	 * The postings ordered by impact, or {@code null} if they are not kept or
+	 * the index changed since they were built
+	 */
+	private ImpactOrder impacts;
+
+	/**
+	 * Weight of the proximity boost, or 0 to score by matches alone
+	 */
+	private double proximityWeight;
+
+	/**
+	 * Getter for the countMap
+	 * 
+	 * @return Map
+	 */
+	public Map<String, Integer> getCountMap() {
+		return Collections.unmodifiableMap(countMap);
+	}
+
+	/**
+	 * Constructor for the class
+	 */
+	public InvertedIndex() {
+		this.index = new TreeMap<String, Map<String, TreeSet<Integer>>>();
+		this.countMap = new TreeMap<String, Integer>();
+		this.documents = new HashMap<String, Document>();
+		this.deleted = new BitSet();
+		this.tombstones = 0;
+		this.nextId = 0;
+		this.expansionLimit = 0;
+		this.expansions = new ConcurrentHashMap<>();
+		this.truncatedSearches = new AtomicLong();
+		this.statistics = new ConcurrentHashMap<>();
+		this.scorer = Scorer.COUNT;
+		this.lengths = new int[16];
+		this.totalLength = 0;
+		this.surfaces = new HashMap<>();
+		this.impactOrdered = false;
+		this.impacts = null;
+		this.proximityWeight = 0;
+	}
+
+	/**
+	 * Adds a given word, it's location path, and position in the text file to the
+	 * Inverted Index data structure
+	 *
+	 * @param word     adds the word
+	 * @param location adds the path, which file the word was found
+	 * @param position where the word was in the file
+	 */
+	public void add(String word, String location, Integer position) {
+		forgetExpansions();
+		forgetBounds(word);
+		Document document = document(location);
+		document.words.add(word);
+		this.index.putIfAbsent(word, new TreeMap<>());
+		this.index.get(word).putIfAbsent(location, new TreeSet<>());
+		this.index.get(word).get(location).add(position);
+		if (this.countMap.getOrDefault(location, 0) < position) {
+			this.countMap.put(location, position);
+			setLength(document, position);
+		}
+
+	}
+
+	/**
+	 * If the word is a key in the index, this returns an unmodifiable view of the
+	 * inner map's keys
+	 * 
+	 * @param word the word
+	 * @return Set
+	 */
+	public Set<String> getLocations(String word) {
+		if (!this.index.containsKey(word)) {
+			return Collections.emptySet();
+		}
+		if (tombstones == 0) {
+			return Collections.unmodifiableSet(this.index.get(word).keySet());
+		}
+		TreeSet<String> live = new TreeSet<>();
+		for (String location : this.index.get(word).keySet()) {
+			if (isLive(location)) {
+				live.add(location);
+			}
+		}
+		return Collections.unmodifiableSet(live);
+	}
+
+	/**
+	 * Method returns, safely, the set of positions for that word and location
+	 * 
+	 * @param word     the word
+	 * @param location the location
+	 * @return Set
+	 */
+	public Set<Integer> getPositions(String word, String location) {
+		return contains(word, location) ? Collections.unmodifiableSet(this.index.get(word).get(location))
+				: Collections.emptySet();
+	}
+
+	/**
+	 * Method returns the size of the index. Words only found at removed
+	 * locations are counted until the index is compacted.
+	 * 
+	 * @return int
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * Method returns the size of how many paths are attached to a word
+	 * 
+	 * @param word the word
+	 * @return int
+	 */
+	public int numLocation(String word) {
+		return frequency(word);
+	}
+
+	/**
+	 * Returns the number of live locations a stem is found in. Removed
+	 * locations keep their postings until they are purged, but must not count,
+	 * or a stem could be found in more locations than the index holds.
+	 * 
+	 * @param stem the stem
+	 * @return the number of live locations of the stem
+	 */
+	private int frequency(String stem) {
+		Map<String, TreeSet<Integer>> locations = index.get(stem);
+		if (locations == null) {
+			return 0;
+		}
+		if (tombstones == 0) {
+			return locations.size();
+		}
+		int live = 0;
+		for (String location : locations.keySet()) {
+			if (isLive(location)) {
+				live++;
+			}
+		}
+		return live;
+	}
+
+	/**
+	 * Records the word a stem was stemmed from, so that suggestions can show
+	 * the word most often found for the stem instead of the stem itself
+	 * 
+	 * @param stem the stem added to the index
+	 * @param word the word before it was stemmed
+	 */
+	public void addSurface(String stem, String word) {
+		surfaces.computeIfAbsent(stem, key -> new HashMap<>()).merge(word, 1, Integer::sum);
+	}
+
+	/**
+	 * Returns the word most often found for each stem of the index, the first
+	 * in sorted order if there is a tie. Stems whose words were not recorded,
+	 * for example in an index read from a segment, are their own word.
+	 * 
+	 * @return the word of each stem in the index, by stem
+	 */
+	public Map<String, String> getSurfaceWords() {
+		TreeMap<String, String> words = new TreeMap<>();
+		for (String stem : index.keySet()) {
+			String best = stem;
+			int most = 0;
+			for (Map.Entry<String, Integer> word : surfaces.getOrDefault(stem, new HashMap<>()).entrySet()) {
+				if (word.getValue() > most || (word.getValue() == most && word.getKey().compareTo(best) < 0)) {
+					best = word.getKey();
+					most = word.getValue();
+				}
+			}
+			words.put(stem, best);
+		}
+		return words;
+	}
+
+	/**
+	 * Returns the number of locations of every word in the index, for example to
+	 * suggest the most common words
+	 * 
+	 * @return the number of locations by word, in sorted order
+	 */
+	public Map<String, Integer> getDocumentFrequencies() {
+		TreeMap<String, Integer> frequencies = new TreeMap<>();
+		for (Map.Entry<String, Map<String, TreeSet<Integer>>> entry : index.entrySet()) {
+			int count = 0;
+			if (tombstones == 0) {
+				count = entry.getValue().size();
+			} else {
+				for (String location : entry.getValue().keySet()) {
+					if (isLive(location)) {
+						count++;
+					}
+				}
+			}
+			if (count > 0) {
+				frequencies.put(entry.getKey(), count);
+			}
+		}
+		return frequencies;
+	}
+
+	/**
+	 * Method returns the size of how many positions are at a given location for a
+	 * certain word
+	 * 
+	 * @param word     the word
+	 * @param location the location
+	 * @return int
+	 */
+	public int numPosition(String word, String location) {
+		return contains(word, location) ? index.get(word).get(location).size() : 0;
+	}
+
+	/**
+	 * Method checks if the index contains a passed in word
+	 * 
+	 * @param word the word
+	 * @return boolean
+	 */
+	public boolean contains(String word) {
+		if (tombstones == 0 || !index.containsKey(word)) {
+			return index.containsKey(word);
+		}
+		for (String location : index.get(word).keySet()) {
+			if (isLive(location)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Method checks to see if the index contains a word at a given location
+	 * 
+	 * @param word     the word
+	 * @param location the location
+	 * @return boolean
+	 */
+	public boolean contains(String word, String location) {
+		return index.containsKey(word) && index.get(word).containsKey(location) && isLive(location);
+	}
+
+	/**
+	 * Method checks to see if the index contains a word at a given location at a
+	 * given position
+	 * 
+	 * @param word     the word
+	 * @param location the location
+	 * @param position the position
+	 * @return boolean
+	 */
+	public boolean contains(String word, String location, int position) {
+		return contains(word, location) ? index.get(word).get(location).contains(position) : false;
+	}
+
+	/**
+	 * ToString method
+	 */
+	@Override
+	public String toString() {
+		return "InvertedIndex : [index=" + index + "]";
+	}
+
+	/**
+	 * Method responsible for performing the exact search given a query Line
+	 * 
+	 * @param queries the query line
+	 * @return ArrayList
+	 */
+	public ArrayList<Result> exactSearch(Set<String> queries) {
+		ArrayList<Result> Result = collect(Query.of(queries), true);
+		Collections.sort(Result);
+		return Result;
+	}
+
+	/**
+	 * Method responsible for performing the partial search given a queryLine
+	 * 
+	 * @param queries the query line
+	 * @return ArrayList
+	 */
+	public ArrayList<Result> partialSearch(Set<String> queries) {
+		ArrayList<Result> Result = collect(Query.of(queries), false);
+		Collections.sort(Result);
+		return Result;
+	}
+
+	/**
+	 * Helper Method for QueryFileParser to determine which search to use
+	 * 
+	 * @param queries queries being passed in
+	 * @param exact   boolean to determine search
+	 * @return ArrayList
+	 */
+	public ArrayList<Result> search(Set<String> queries, boolean exact) {
+		return exact ? exactSearch(queries) : partialSearch(queries);
+	}
+
+	/**
+	 * Returns one page of the search results, in the same order as
+	 * {@link #search(Set, boolean)}. Only the best offset + limit results are
+	 * kept in a bounded heap, so the rest are never sorted, and locations that
+	 * cannot be among them are skipped (see {@link #explain(Query, boolean)}).
+	 * 
+	 * @param queries the query stems
+	 * @param exact   boolean to determine search
+	 * @param offset  the number of best results to skip
+	 * @param limit   the maximum number of results to return
+	 * @return the results from offset to offset + limit, best first
+	 */
+	public ArrayList<Result> search(Set<String> queries, boolean exact, int offset, int limit) {
+		return plan(Query.of(queries), exact, scorer).execute(offset, limit);
+	}
+
+	/**
+	 * Searches for a parsed query, which may hold phrases and NEAR clauses. In a
+	 * partial search every stem of a phrase or NEAR clause matches as a prefix.
+	 * 
+	 * @param query the query
+	 * @param exact boolean to determine search
+	 * @return the sorted results
+	 * @see Query#parse(String)
+	 */
+	public ArrayList<Result> search(Query query, boolean exact) {
+		ArrayList<Result> Result = collect(query, exact);
+		Collections.sort(Result);
+		return Result;
+	}
+
+	/**
+	 * Returns one page of the results of a parsed query, in the same order as
+	 * {@link #search(Query, boolean)}.
+	 * 
+	 * @param query  the query
+	 * @param exact  boolean to determine search
+	 * @param offset the number of best results to skip
+	 * @param limit  the maximum number of results to return
+	 * @return the results from offset to offset + limit, best first
+	 */
+	public ArrayList<Result> search(Query query, boolean exact, int offset, int limit) {
+		return plan(query, exact, scorer).execute(offset, limit);
+	}
+
+	/**
+	 * Returns one page of the results of a parsed query, ranked by the given
+	 * scorer instead of the one set with {@link #setScorer(Scorer)}.
+	 * 
+	 * @param query  the query
+	 * @param exact  boolean to determine search
+	 * @param offset the number of best results to skip
+	 * @param limit  the maximum number of results to return
+	 * @param scorer the scorer
+	 * @return the results from offset to offset + limit, best first
+	 */
+	public ArrayList<Result> search(Query query, boolean exact, int offset, int limit, Scorer scorer) {
+		return plan(query, exact, scorer).execute(offset, limit);
+	}
+
+	/**
+	 * Returns one page of the sorted results, keeping only the best offset +
+	 * limit results in a bounded heap.
+	 * 
+	 * @param results the unsorted results
+	 * @param offset  the number of best results to skip
+	 * @param limit   the maximum number of results to return
+	 * @return the results from offset to offset + limit, best first
+	 */
+	private static ArrayList<Result> page(ArrayList<Result> results, int offset, int limit) {
+		int k = (int) Math.min(Integer.MAX_VALUE, (long) Math.max(0, offset) + Math.max(0, limit));
+		PriorityQueue<Result> best = new PriorityQueue<>(Collections.reverseOrder());
+		if (k > 0) {
+			for (Result result : results) {
+				if (best.size() < k) {
+					best.add(result);
+				} else if (result.compareTo(best.peek()) < 0) {
+					best.poll();
+					best.add(result);
+				}
+			}
+		}
+
+		ArrayList<Result> page = new ArrayList<>();
+		while (best.size() > Math.max(0, offset)) {
+			page.add(best.poll());
+		}
+		Collections.reverse(page);
+		return page;
+	}
+
+	/**
+	 * Finds every location matching the query and scores it, without sorting the
+	 * results.
+	 * 
+	 * @param query the query
+	 * @param exact whether the stems must match exactly or as a prefix
+	 * @return the unsorted results
+	 * @see Plan
+	 */
+	private ArrayList<Result> collect(Query query, boolean exact) {
+		return plan(query, exact, scorer).execute();
+	}
+
+	/**
+	 * Plans a search that is about to run, counting it once if it uses a
+	 * truncated expansion. Explaining a query does not count.
+	 * 
+	 * @param query  the query
+	 * @param exact  whether the stems must match exactly or as a prefix
+	 * @param scorer the scorer
+	 * @return the plan
+	 */
+	private Plan plan(Query query, boolean exact, Scorer scorer) {
+		Plan plan = new Plan(query, exact, scorer);
+		if (plan.isTruncated()) {
+			truncatedSearches.incrementAndGet();
+		}
+		return plan;
+	}
+
+	/**
+	 * Explains how a query would be searched: which clauses are dropped because
+	 * they are found nowhere, how many stems each word expands to and how many
+	 * locations it is found in, and whether it is searched one clause or one
+	 * location at a time, with the estimated cost of both.
+	 * 
+	 * @param query the query
+	 * @param exact whether the stems must match exactly or as a prefix
+	 * @return the plan, one line per clause
+	 */
+	public String explain(Query query, boolean exact) {
+		return new Plan(query, exact, scorer).explain();
+	}
+
+	/**
+	 * Returns the stems of the index a query stem matches.
+	 * 
+	 * @param query the query stem
+	 * @param exact whether the stem must match exactly or as a prefix
+	 * @return the matching stems, in sorted order
+	 */
+	private List<String> stems(String query, boolean exact) {
+		if (exact) {
+			return index.containsKey(query) ? List.of(query) : List.of();
+		}
+		return expand(query).stems;
+	}
+
+	/**
+	 * Returns the weight of a stem, computed the first time it is needed and kept
+	 * until the index changes.
+	 * 
+	 * @param stem   the stem
+	 * @param scorer the scorer
+	 * @return the weight of the stem
+	 */
+	private double weight(String stem, Scorer scorer) {
+		ConcurrentHashMap<String, Double> weights = statistics(scorer).weights;
+		Double weight = weights.get(stem);
+		if (weight == null) {
+			weight = scorer.weight(frequency(stem), countMap.size());
+			weights.put(stem, weight);
+		}
+		return weight;
+	}
+
+	/**
+	 * Returns the most a stem adds to the score of a location before its
+	 * weight, the largest {@link Scorer#bound(int, int)} of its postings.
+	 * Computed the first time it is needed and kept until the stem is added to.
+	 * 
+	 * @param stem   the stem
+	 * @param scorer the scorer
+	 * @return the bound on the score of the stem
+	 */
+	private double bound(String stem, Scorer scorer) {
+		ConcurrentHashMap<String, Double> bounds = statistics(scorer).bounds;
+		Double bound = bounds.get(stem);
+		if (bound == null) {
+			double max = 0;
+			for (Map.Entry<String, TreeSet<Integer>> entry : index.get(stem).entrySet()) {
+				Integer length = countMap.get(entry.getKey());
+				if (length != null) {
+					max = Math.max(max, scorer.bound(entry.getValue().size(), length));
+				}
+			}
+			bound = max;
+			bounds.put(stem, bound);
+		}
+		return bound;
+	}
+
+	/**
+	 * Returns the weights and bounds kept for a scorer
+	 * 
+	 * @param scorer the scorer
+	 * @return the weights and bounds
+	 */
+	private Statistics statistics(Scorer scorer) {
+		return statistics.computeIfAbsent(scorer, key -> new Statistics());
+	}
+
+	/**
+	 * Forgets the bounds on the score of a stem, since it is being added to.
+	 * 
+	 * @param stem the stem
+	 */
+	private void forgetBounds(String stem) {
+		for (Statistics kept : statistics.values()) {
+			kept.bounds.remove(stem);
+		}
+	}
+
+	/**
+	 * Records the number of words of a document, keeping the total up to date.
+	 * 
+	 * @param document the document
+	 * @param length   the number of words, or 0 once it is removed
+	 */
+	private void setLength(Document document, int length) {
+		if (document.id >= lengths.length) {
+			lengths = Arrays.copyOf(lengths, Math.max(lengths.length * 2, document.id + 1));
+		}
+		totalLength += length - lengths[document.id];
+		lengths[document.id] = length;
+	}
+
+	/**
+	 * Returns the average number of words at a location.
+	 * 
+	 * @return the average, or 0 if the index is empty
+	 */
+	private double averageLength() {
+		return countMap.isEmpty() ? 0 : (double) totalLength / countMap.size();
+	}
+
+	/**
+	 * Returns whether a bound on a score is below the score of the worst result
+	 * kept so far, allowing for rounding in the bound
+	 * 
+	 * @param bound the bound on a score
+	 * @param worst the score of the worst result
+	 * @return {@code true} if a location within the bound cannot be kept
+	 */
+	private static boolean below(double bound, double worst) {
+		return bound * (1 + 1e-9) < worst;
+	}
+
+	/**
+	 * Enables a proximity boost, so that locations where the clauses of a query
+	 * match close together rank above locations where they are far apart.
+	 * Phrases and NEAR clauses are boosted by the position of each match.
+	 * 
+	 * @param weight how much adjacent matches multiply the score by, minus one,
+	 *               or 0 to score by matches alone
+	 */
+	public void setProximityBoost(double weight) {
+		this.proximityWeight = Math.max(0, weight);
+	}
+
+	/**
+	 * Sets how searches rank the locations they find, unless they ask for
+	 * another scorer.
+	 * 
+	 * @param scorer the scorer
+	 * @see Scorer#forName(String)
+	 */
+	public void setScorer(Scorer scorer) {
+		this.scorer = scorer == null ? Scorer.COUNT : scorer;
+		this.impacts = null;
+		rebuildImpactOrder();
+	}
+
+	/**
+	 * Keeps a second copy of the postings of every stem, ordered by how much
+	 * they add to the score of their location under the scorer of the index. A
+	 * top-k search of a few stems reads them from the highest impact down and
+	 * stops once no location left can be among the best, instead of reading
+	 * every posting. The copy is built now and dropped when the index changes,
+	 * and rebuilt by {@link #freeze()}. Searches fall back to MaxScore without
+	 * it.
+	 * 
+	 * @param enabled whether to keep the postings ordered by impact
+	 */
+	public void setImpactOrder(boolean enabled) {
+		this.impactOrdered = enabled;
+		this.impacts = enabled ? sortByImpact() : null;
+	}
+
+	/**
+	 * Builds the postings ordered by impact again, if they are kept and the
+	 * index changed since they were last built. Any change drops them, so this
+	 * is called once a build or a batch of updates is done rather than after
+	 * every change.
+	 */
+	public void freeze() {
+		rebuildImpactOrder();
+	}
+
+	/**
+	 * Builds the postings ordered by impact, if they are kept and the index
+	 * changed since they were last built.
+	 */
+	private void rebuildImpactOrder() {
+		if (impactOrdered && impacts == null) {
+			impacts = sortByImpact();
+		}
+	}
+
+	/**
+	 * Orders the live postings of every stem by how much they add to the score
+	 * of their location, highest first.
+	 * 
+	 * @return the postings ordered by impact
+	 */
+	private ImpactOrder sortByImpact() {
+		ImpactOrder order = new ImpactOrder(scorer);
+		double average = averageLength();
+		for (Map.Entry<String, Map<String, TreeSet<Integer>>> word : index.entrySet()) {
+			ArrayList<String> locations = new ArrayList<>();
+			ArrayList<Double> scores = new ArrayList<>();
+			for (Map.Entry<String, TreeSet<Integer>> entry : word.getValue().entrySet()) {
+				Integer length = countMap.get(entry.getKey());
+				if (length != null && isLive(entry.getKey())) {
+					locations.add(entry.getKey());
+					scores.add(scorer.total(scorer.score(entry.getValue().size(), length, average), length));
+				}
+			}
+
+			Integer[] sorted = new Integer[locations.size()];
+			for (int i = 0; i < sorted.length; i++) {
+				sorted[i] = i;
+			}
+			Arrays.sort(sorted, Comparator.comparingDouble((Integer i) -> scores.get(i)).reversed());
+
+			ImpactPostings postings = new ImpactPostings(sorted.length);
+			for (int i = 0; i < sorted.length; i++) {
+				postings.locations[i] = locations.get(sorted[i]);
+				postings.matches[i] = word.getValue().get(postings.locations[i]).size();
+				postings.impacts[i] = scores.get(sorted[i]);
+			}
+			order.postings.put(word.getKey(), postings);
 		}
+		return order;
+	}
 
-		/**
-		 * Getter for where the result is
-		 * 
-		 * @return String
-		 */
-		public String getWhere() {
-			return this.where;
+	/**
+	 * Returns how searches rank the locations they find, unless they ask for
+	 * another scorer.
+	 * 
+	 * @return the scorer
+	 */
+	public Scorer getScorer() {
+		return scorer;
+	}
+
+	/**
+	 * Limits how many stems a prefix expands to in a partial search. Prefixes
+	 * with more stems, usually very short ones, only expand to the stems found
+	 * in the most locations, so one short prefix cannot make a search scan most
+	 * of the index.
+	 * 
+	 * @param limit the maximum number of stems per prefix, or 0 for no limit
+	 */
+	public void setExpansionLimit(int limit) {
+		this.expansionLimit = Math.max(0, limit);
+		this.expansions.clear();
+	}
+
+	/**
+	 * Returns whether a prefix expands to more stems than the expansion limit,
+	 * so a partial search for it only uses the most common ones.
+	 * 
+	 * @param prefix the query stem
+	 * @return {@code true} if the expansion of the prefix is truncated
+	 * @see #setExpansionLimit(int)
+	 */
+	public boolean isTruncated(String prefix) {
+		return expand(prefix).truncated;
+	}
+
+	/**
+	 * Returns the number of partial searches that used a truncated expansion.
+	 * 
+	 * @return the number of truncated searches
+	 */
+	public long getTruncatedSearches() {
+		return truncatedSearches.get();
+	}
+
+	/**
+	 * Returns the stems starting with a prefix, remembering them until the index
+	 * changes. Only the range of the sorted index starting with the prefix is
+	 * visited.
+	 * 
+	 * @param prefix the prefix
+	 * @return the expansion of the prefix
+	 */
+	private Expansion expand(String prefix) {
+		Expansion expansion = expansions.get(prefix);
+		if (expansion != null) {
+			return expansion;
 		}
 
-		/**
-		 * Getter for the count
-		 * 
-		 * @return Integer
-		 */
-		public Integer getCount() {
-			return this.count;
+		ArrayList<String> stems = new ArrayList<>();
+		for (String stem : this.index.tailMap(prefix).keySet()) {
+			if (!stem.startsWith(prefix)) {
+				break;
+			}
+			stems.add(stem);
 		}
 
-		/**
-		 * Getter for the score
-		 * 
-		 * @return double
-		 */
-		public double getScore() {
-			return this.score;
+		int limit = expansionLimit;
+		boolean truncated = limit > 0 && stems.size() > limit;
+		if (truncated) {
+			// keep the stems found in the most locations, searched in the usual order
+			stems.sort(Comparator.comparingInt((String stem) -> index.get(stem).size()).reversed()
+					.thenComparing(Comparator.naturalOrder()));
+			stems = new ArrayList<>(stems.subList(0, limit));
+			Collections.sort(stems);
 		}
 
-		/**
-		 * Method responsible for calculating the score score = total matches / total
-		 * words
-		 * 
-		 * @param word the word
-		 */
-		private void calcScore(String word) {
-			this.count += index.get(word).get(where).size();
-			this.score = (double) this.count / countMap.get(where);
+		if (expansions.size() >= MAX_EXPANSIONS) {
+			expansions.clear();
 		}
+		expansion = new Expansion(stems, truncated);
+		expansions.put(prefix, expansion);
+		return expansion;
+	}
 
-		@Override
-		public int compareTo(Result result) {
-			if (this.score == result.score && this.count == result.count) {
-				return this.where.compareToIgnoreCase(result.where);
-			} else if (this.score == result.score) {
-				return Integer.compare(result.count, this.count);
-			} else {
-				return Double.compare(result.score, this.score);
+	/**
+	 * Forgets the remembered prefix expansions, stem weights and postings
+	 * ordered by impact, since the index is changing.
+	 */
+	private void forgetExpansions() {
+		if (!expansions.isEmpty()) {
+			expansions.clear();
+		}
+		impacts = null;
+		for (Statistics kept : statistics.values()) {
+			if (!kept.weights.isEmpty()) {
+				kept.weights.clear();
 			}
 		}
+	}
 
-		@Override
-		public String toString() {
-			return "where=" + where + ", count=" + count + ", score=" + score;
+	/**
+	 * Helper method for both the exact and partial search. Goes through the
+	 * location and builds a new result if the location is not present
+	 * 
+	 * @param Result  the search Result
+	 * @param query   the query
+	 * @param scorer  the scorer
+	 * @param total   the location linked to the result
+	 * @param clauses the numbers of the query clauses matching the stem, which
+	 *                each count its matches
+	 * @param hits    whether to remember the positions for the proximity boost
+	 */
+	private void buildSearch(ArrayList<Result> Result, String query, Scorer scorer, HashMap<String, Result> total,
+			List<Integer> clauses, boolean hits) {
+		double weight = weight(query, scorer);
+		for (Map.Entry<String, TreeSet<Integer>> entry : this.index.get(query).entrySet()) {
+			String location = entry.getKey();
+			if (!isLive(location)) {
+				continue;
+			}
+			Result result = result(Result, location, total, scorer);
+			int[] positions = hits ? toArray(entry.getValue()) : null;
+			for (int clause : clauses) {
+				result.addMatches(entry.getValue().size(), weight);
+				if (hits) {
+					result.addHits(clause, positions);
+				}
+			}
 		}
+	}
 
+	/**
+	 * Returns the result of a location, adding a new one if the location is not
+	 * present
+	 * 
+	 * @param Result the search Result
+	 * @param where  the location
+	 * @param total  the location linked to the result
+	 * @param scorer the scorer of a new result
+	 * @return the result
+	 */
+	private Result result(ArrayList<Result> Result, String where, HashMap<String, Result> total, Scorer scorer) {
+		Result result = total.get(where);
+		if (result == null) {
+			result = new Result(where, scorer);
+			total.put(where, result);
+			Result.add(result);
+		}
+		return result;
 	}
 
 	/**
-	 * Index data structure initialization
+	 * Returns whether every stem of a clause is found in a location.
+	 * 
+	 * @param postings the postings of each stem of the clause
+	 * @param location the location
+	 * @return {@code true} if every stem is found in the location
 	 */
-	private final TreeMap<String, Map<String, TreeSet<Integer>>> index;
+	private static boolean inAll(List<List<Map<String, TreeSet<Integer>>>> postings, String location) {
+		for (List<Map<String, TreeSet<Integer>>> maps : postings) {
+			if (!inAny(maps, location)) {
+				return false;
+			}
+		}
+		return true;
+	}
 
 	/**
-	 * The count map initialization
+	 * Returns whether any of the stems matching a query stem is found in a
+	 * location.
+	 * 
+	 * @param maps     the postings of the stems
+	 * @param location the location
+	 * @return {@code true} if one of the stems is found in the location
 	 */
-	private final TreeMap<String, Integer> countMap;
+	private static boolean inAny(List<Map<String, TreeSet<Integer>>> maps, String location) {
+		for (Map<String, TreeSet<Integer>> map : maps) {
+			if (map.containsKey(location)) {
+				return true;
+			}
+		}
+		return false;
+	}
 
 	/**
-	 * Getter for the countMap
+	 * Returns the sorted positions of the stems matching a query stem in a
+	 * location.
 	 * 
-	 * @return Map
+	 * @param maps     the postings of the stems
+	 * @param location the location
+	 * @return the sorted positions, empty if none of the stems is found there
 	 */
-	public Map<String, Integer> getCountMap() {
-		return Collections.unmodifiableMap(countMap);
+	private static int[] positions(List<Map<String, TreeSet<Integer>>> maps, String location) {
+		if (maps.size() == 1) {
+			TreeSet<Integer> positions = maps.get(0).get(location);
+			return positions == null ? new int[0] : toArray(positions);
+		}
+		int length = 0;
+		for (Map<String, TreeSet<Integer>> map : maps) {
+			TreeSet<Integer> positions = map.get(location);
+			length += positions == null ? 0 : positions.size();
+		}
+		int[] merged = new int[length];
+		int i = 0;
+		for (Map<String, TreeSet<Integer>> map : maps) {
+			TreeSet<Integer> positions = map.get(location);
+			if (positions != null) {
+				for (int position : positions) {
+					merged[i++] = position;
+				}
+			}
+		}
+		// two stems are never found at the same position, so there are no duplicates
+		Arrays.sort(merged);
+		return merged;
 	}
 
 	/**
-	 * Constructor for the class
+	 * Copies sorted positions into an array.
+	 * 
+	 * @param positions the positions
+	 * @return the positions in the same order
 	 */
-	public InvertedIndex() {
-		this.index = new TreeMap<String, Map<String, TreeSet<Integer>>>();
-		this.countMap = new TreeMap<String, Integer>();
+	private static int[] toArray(TreeSet<Integer> positions) {
+		int[] array = new int[positions.size()];
+		int i = 0;
+		for (int position : positions) {
+			array[i++] = position;
+		}
+		return array;
 	}
 
 	/**
-	 * Adds a given word, it's location path, and position in the text file to the
-	 * Inverted Index data structure
-	 *
-	 * @param word     adds the word
-	 * @param location adds the path, which file the word was found
-	 * @param position where the word was in the file
+	 * Finds where the stems of a phrase follow each other. Only the positions of
+	 * the stem found least often are visited; the others are searched for the
+	 * positions the phrase needs them at.
+	 * 
+	 * @param positions the sorted positions of each stem of the phrase
+	 * @return the positions the phrase starts at
 	 */
-	public void add(String word, String location, Integer position) {
-		this.index.putIfAbsent(word, new TreeMap<>());
-		this.index.get(word).putIfAbsent(location, new TreeSet<>());
-		this.index.get(word).get(location).add(position);
-		if (this.countMap.getOrDefault(location, 0) < position) {
-			this.countMap.put(location, position);
+	private static int[] phrase(int[][] positions) {
+		int shortest = 0;
+		for (int i = 1; i < positions.length; i++) {
+			if (positions[i].length < positions[shortest].length) {
+				shortest = i;
+			}
 		}
 
+		int[] cursors = new int[positions.length];
+		int[] matches = new int[positions[shortest].length];
+		int found = 0;
+		for (int position : positions[shortest]) {
+			int start = position - shortest;
+			boolean match = true;
+			for (int i = 0; i < positions.length && match; i++) {
+				if (i != shortest) {
+					cursors[i] = gallop(positions[i], cursors[i], start + i);
+					match = cursors[i] < positions[i].length && positions[i][cursors[i]] == start + i;
+				}
+			}
+			if (match) {
+				matches[found++] = start;
+			}
+		}
+		return Arrays.copyOf(matches, found);
 	}
 
 	/**
-	 * If the word is a key in the index, this returns an unmodifiable view of the
-	 * inner map's keys
+	 * Finds where two stems are at most a distance apart, in either order. The
+	 * positions of the stem found less often are visited, and the other stem is
+	 * searched for near each of them.
 	 * 
-	 * @param word the word
-	 * @return Set
+	 * @param first    the sorted positions of one stem
+	 * @param second   the sorted positions of the other stem
+	 * @param distance the largest distance between the stems
+	 * @return the positions of the less frequent stem that have the other stem
+	 *         near them
 	 */
-	public Set<String> getLocations(String word) {
-		return contains(word) ? Collections.unmodifiableSet(this.index.get(word).keySet()) : Collections.emptySet();
+	private static int[] near(int[] first, int[] second, int distance) {
+		int[] visited = first.length <= second.length ? first : second;
+		int[] other = visited == first ? second : first;
+
+		int cursor = 0;
+		int[] matches = new int[visited.length];
+		int found = 0;
+		for (int position : visited) {
+			cursor = gallop(other, cursor, position - distance);
+			if (cursor < other.length && other[cursor] <= position + distance) {
+				matches[found++] = position;
+			}
+		}
+		return Arrays.copyOf(matches, found);
 	}
 
 	/**
-	 * Method returns, safely, the set of positions for that word and location
+	 * Returns the first index at or after from holding a value of at least the
+	 * target. The step doubles until it passes the target and the last step is
+	 * then binary searched, so skipping over n positions takes log n steps.
 	 * 
-	 * @param word     the word
-	 * @param location the location
-	 * @return Set
+	 * @param sorted the sorted values
+	 * @param from   the index to start from
+	 * @param target the value to search for
+	 * @return the index, or the length of the array if every value is smaller
 	 */
-	public Set<Integer> getPositions(String word, String location) {
-		return contains(word, location) ? Collections.unmodifiableSet(this.index.get(word).get(location))
-				: Collections.emptySet();
+	private static int gallop(int[] sorted, int from, int target) {
+		if (from >= sorted.length || sorted[from] >= target) {
+			return from;
+		}
+		int low = from;
+		int step = 1;
+		while (low + step < sorted.length && sorted[low + step] < target) {
+			low += step;
+			step *= 2;
+		}
+		// sorted[low] is below the target, and the answer is at most low + step
+		int high = Math.min(low + step, sorted.length);
+		low++;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sorted[middle] < target) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
 	}
 
 	/**
-	 * Method returns the size of the index
+	 * Function called by the driver to output the index in a pretty JSON format
 	 * 
-	 * @return int
+	 * @param path the path passed in
+	 * @throws IOException if path is invalid
 	 */
-	public int size() {
-		return index.size();
+	public void toJson(Path path) throws IOException {
+		SimpleJsonWriter.asIndex(tombstones == 0 ? index : liveIndex(), path);
 	}
 
 	/**
-	 * Method returns the size of how many paths are attached to a word
+	 * Returns a copy of the index without the postings of removed locations.
 	 * 
-	 * @param word the word
-	 * @return int
+	 * @return the postings of the locations that have not been removed
 	 */
-	public int numLocation(String word) {
-		return contains(word) ? index.get(word).size() : 0;
+	private TreeMap<String, Map<String, TreeSet<Integer>>> liveIndex() {
+		TreeMap<String, Map<String, TreeSet<Integer>>> live = new TreeMap<>();
+		for (String word : index.keySet()) {
+			TreeMap<String, TreeSet<Integer>> locations = new TreeMap<>();
+			for (Map.Entry<String, TreeSet<Integer>> entry : index.get(word).entrySet()) {
+				if (isLive(entry.getKey())) {
+					locations.put(entry.getKey(), entry.getValue());
+				}
+			}
+			if (!locations.isEmpty()) {
+				live.put(word, locations);
+			}
+		}
+		return live;
 	}
 
 	/**
-	 * Method returns the size of how many positions are at a given location for a
-	 * certain word
+	 * Removes a location and its word count. The location is only marked as
+	 * removed, so this does not depend on the size of the document, and its
+	 * postings are skipped by searches until the index is compacted. The index
+	 * compacts itself once a quarter of its documents have been removed.
 	 * 
-	 * @param word     the word
-	 * @param location the location
-	 * @return int
+	 * @param location the location to remove
+	 * @return {@code true} if the location was in the index
 	 */
-	public int numPosition(String word, String location) {
-		return contains(word, location) ? index.get(word).get(location).size() : 0;
+	public boolean remove(String location) {
+		return removeLocation(location);
 	}
 
 	/**
-	 * Method checks if the index contains a passed in word
+	 * Replaces the postings and word count of a location with those in the local
+	 * index, for example after the page at that location changed. Unlike
+	 * {@link #remove(String)}, the old postings are purged right away.
 	 * 
-	 * @param word the word
-	 * @return boolean
+	 * @param location the location to replace
+	 * @param local    the index of the new content, which should only contain
+	 *                 that location
 	 */
-	public boolean contains(String word) {
-		return index.containsKey(word);
+	public void replace(String location, InvertedIndex local) {
+		removeLocation(location);
+		mergeIndex(local);
 	}
 
 	/**
-	 * Method checks to see if the index contains a word at a given location
+	 * Purges the postings of every removed location.
+	 */
+	public void compact() {
+		compactIndex();
+	}
+
+	/**
+	 * Returns whether the location has not been removed.
 	 * 
-	 * @param word     the word
 	 * @param location the location
-	 * @return boolean
+	 * @return {@code false} if the location was removed and not added again
 	 */
-	public boolean contains(String word, String location) {
-		return contains(word) && index.get(word).containsKey(location);
+	private boolean isLive(String location) {
+		if (tombstones == 0) {
+			return true;
+		}
+		Document document = documents.get(location);
+		return document == null || !deleted.get(document.id);
 	}
 
 	/**
-	 * Method checks to see if the index contains a word at a given location at a
-	 * given position
+	 * Returns the document of a location, creating it if needed. If the location
+	 * was removed, purges its old postings first so they are not mixed with the
+	 * new ones.
 	 * 
-	 * @param word     the word
 	 * @param location the location
-	 * @param position the position
-	 * @return boolean
+	 * @return the live document of the location
 	 */
-	public boolean contains(String word, String location, int position) {
-		return contains(word, location) ? index.get(word).get(location).contains(position) : false;
+	private Document document(String location) {
+		Document document = documents.get(location);
+		if (document == null) {
+			document = new Document(nextId++);
+			documents.put(location, document);
+		} else if (tombstones > 0 && deleted.get(document.id)) {
+			purge(location, document);
+		}
+		return document;
 	}
 
 	/**
-	 * ToString method
+	 * Removes the postings of a removed document and clears its tombstone.
+	 * 
+	 * @param location the location of the document
+	 * @param document the removed document
 	 */
-	@Override
-	public String toString() {
-		return "InvertedIndex : [index=" + index + "]";
+	private void purge(String location, Document document) {
+		for (String word : document.words) {
+			Map<String, TreeSet<Integer>> locations = this.index.get(word);
+			locations.remove(location);
+			if (locations.isEmpty()) {
+				this.index.remove(word);
+			}
+		}
+		document.words.clear();
+		deleted.clear(document.id);
+		tombstones--;
 	}
 
 	/**
-	 * Method responsible for performing the exact search given a query Line
+	 * Helper method for {@link #remove(String)} and
+	 * {@link #replace(String, InvertedIndex)}, which must not call each other
+	 * since subclasses may lock in both.
 	 * 
-	 * @param queries the query line
-	 * @return ArrayList
+	 * @param location the location to remove
+	 * @return {@code true} if the location was in the index
 	 */
-	public ArrayList<Result> exactSearch(Set<String> queries) {
-		ArrayList<Result> Result = new ArrayList<>();
-		HashMap<String, Result> total = new HashMap<>();
-		for (String query : queries) {
-			if (index.containsKey(query)) {
-				buildSearch(Result, query, total);
+	private boolean removeLocation(String location) {
+		Document document = documents.get(location);
+		if (document == null || deleted.get(document.id)) {
+			return false;
+		}
+		forgetExpansions();
+		deleted.set(document.id);
+		tombstones++;
+		this.countMap.remove(location);
+		setLength(document, 0);
+		if (tombstones * 4 > documents.size()) {
+			compactIndex();
+		}
+		return true;
+	}
+
+	/**
+	 * Helper method for {@link #compact()}
+	 */
+	private void compactIndex() {
+		forgetExpansions();
+		Iterator<Map.Entry<String, Document>> iterator = documents.entrySet().iterator();
+		while (tombstones > 0 && iterator.hasNext()) {
+			Map.Entry<String, Document> entry = iterator.next();
+			if (deleted.get(entry.getValue().id)) {
+				purge(entry.getKey(), entry.getValue());
+				iterator.remove();
 			}
 		}
-		Collections.sort(Result);
-		return Result;
 	}
 
 	/**
-	 * Method responsible for performing the partial search given a queryLine
+	 * Writes the index to a segment file, one line per word and location with
+	 * the tab separated word, location and space separated positions. Each word
+	 * is followed by one line per word it was stemmed from, with the tab
+	 * separated word, an empty location, the original word and the number of
+	 * times it was found. Unlike {@link #toJson(Path)}, the segment can be read
+	 * back with {@link #fromSegment(Path)}.
 	 * 
-	 * @param queries the query line
-	 * @return ArrayList
+	 * @param path the segment file to write
+	 * @throws IOException if unable to write to the path
 	 */
-	public ArrayList<Result> partialSearch(Set<String> queries) {
-		ArrayList<Result> Result = new ArrayList<>();
-		HashMap<String, Result> total = new HashMap<>();
-		for (String query : queries) {
-			for (String stem : this.index.keySet()) {
-				if (stem.startsWith(query)) {
-					buildSearch(Result, stem, total);
+	public void toSegment(Path path) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			for (String word : index.keySet()) {
+				boolean written = false;
+				for (Map.Entry<String, TreeSet<Integer>> entry : index.get(word).entrySet()) {
+					if (!isLive(entry.getKey())) {
+						continue;
+					}
+					written = true;
+					writer.write(word);
+					writer.write('\t');
+					writer.write(entry.getKey());
+					writer.write('\t');
+					boolean first = true;
+					for (Integer position : entry.getValue()) {
+						if (!first) {
+							writer.write(' ');
+						}
+						writer.write(position.toString());
+						first = false;
+					}
+					writer.newLine();
+				}
+				if (written && surfaces.containsKey(word)) {
+					for (Map.Entry<String, Integer> surface : new TreeMap<>(surfaces.get(word)).entrySet()) {
+						writer.write(word);
+						writer.write("\t\t");
+						writer.write(surface.getKey());
+						writer.write('\t');
+						writer.write(surface.getValue().toString());
+						writer.newLine();
+					}
 				}
 			}
 		}
-		Collections.sort(Result);
-		return Result;
 	}
 
 	/**
-	 * Helper Method for QueryFileParser to determine which search to use
+	 * Reads an index from a segment file written by {@link #toSegment(Path)}.
 	 * 
-	 * @param queries queries being passed in
-	 * @param exact   boolean to determine search
-	 * @return ArrayList
+	 * @param path the segment file to read
+	 * @return the index stored in the segment
+	 * @throws IOException if unable to read the path or it is not a segment
 	 */
-	public ArrayList<Result> search(Set<String> queries, boolean exact) {
-		return exact ? exactSearch(queries) : partialSearch(queries);
+	public static InvertedIndex fromSegment(Path path) throws IOException {
+		InvertedIndex segment = new InvertedIndex();
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split("\t", -1);
+				if (parts.length != 3 && (parts.length != 4 || !parts[1].isEmpty())) {
+					throw new IOException("Invalid line in index segment " + path + ": " + line);
+				}
+				try {
+					if (parts.length == 4) {
+						segment.surfaces.computeIfAbsent(parts[0], key -> new HashMap<>()).merge(parts[2],
+								Integer.parseInt(parts[3]), Integer::sum);
+						continue;
+					}
+					for (String position : parts[2].split(" ")) {
+						segment.add(parts[0], parts[1], Integer.parseInt(position));
+					}
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid position in index segment " + path + ": " + line);
+				}
+			}
+		}
+		return segment;
 	}
 
 	/**
-	 * Helper method for both the exact and partial search. Goes through the
-	 * location and builds a new result if the location is not present
+	 * Writes the postings of the index in a compact binary form, followed by the
+	 * words each stem was stemmed from, to be read back with
+	 * {@link #read(DataInput)}.
 	 * 
-	 * @param Result the search Result
-	 * @param query  the query
-	 * @param total  the location linked to the result
+	 * @param out where to write the postings
+	 * @throws IOException if unable to write
 	 */
-	private void buildSearch(ArrayList<Result> Result, String query, HashMap<String, Result> total) {
-		for (String location : this.index.get(query).keySet()) {
-			if (!total.containsKey(location)) {
-				Result result = new Result(location);
-				total.put(location, result);
-				Result.add(result);
+	public void write(DataOutput out) throws IOException {
+		TreeMap<String, Map<String, TreeSet<Integer>>> live = tombstones == 0 ? index : liveIndex();
+		out.writeInt(live.size());
+		for (Map.Entry<String, Map<String, TreeSet<Integer>>> word : live.entrySet()) {
+			out.writeUTF(word.getKey());
+			out.writeInt(word.getValue().size());
+			for (Map.Entry<String, TreeSet<Integer>> location : word.getValue().entrySet()) {
+				out.writeUTF(location.getKey());
+				out.writeInt(location.getValue().size());
+				for (Integer position : location.getValue()) {
+					out.writeInt(position);
+				}
+			}
+		}
+		ArrayList<String> stems = new ArrayList<>();
+		for (String stem : live.keySet()) {
+			if (surfaces.containsKey(stem)) {
+				stems.add(stem);
+			}
+		}
+		out.writeInt(stems.size());
+		for (String stem : stems) {
+			out.writeUTF(stem);
+			out.writeInt(surfaces.get(stem).size());
+			for (Map.Entry<String, Integer> surface : surfaces.get(stem).entrySet()) {
+				out.writeUTF(surface.getKey());
+				out.writeInt(surface.getValue());
 			}
-			total.get(location).calcScore(query);
 		}
 	}
 
 	/**
-	 * Function called by the driver to output the index in a pretty JSON format
+	 * Reads postings written by {@link #write(DataOutput)}. Postings written
+	 * without the words of their stems, by an older version, are read as well
+	 * if nothing follows them.
 	 * 
-	 * @param path the path passed in
-	 * @throws IOException if path is invalid
+	 * @param in where to read the postings
+	 * @return the index of the postings
+	 * @throws IOException if unable to read
 	 */
-	public void toJson(Path path) throws IOException {
-		SimpleJsonWriter.asIndex(index, path);
+	public static InvertedIndex read(DataInput in) throws IOException {
+		InvertedIndex read = new InvertedIndex();
+		int words = in.readInt();
+		for (int i = 0; i < words; i++) {
+			String word = in.readUTF();
+			int locations = in.readInt();
+			for (int j = 0; j < locations; j++) {
+				String location = in.readUTF();
+				int positions = in.readInt();
+				for (int k = 0; k < positions; k++) {
+					read.add(word, location, in.readInt());
+				}
+			}
+		}
+		int stems;
+		try {
+			stems = in.readInt();
+		} catch (EOFException e) {
+			return read;
+		}
+		for (int i = 0; i < stems; i++) {
+			HashMap<String, Integer> stemmed = read.surfaces.computeIfAbsent(in.readUTF(), key -> new HashMap<>());
+			int count = in.readInt();
+			for (int j = 0; j < count; j++) {
+				stemmed.merge(in.readUTF(), in.readInt(), Integer::sum);
+			}
+		}
+		return read;
 	}
 
 	/**
@@ -327,23 +2786,48 @@ public class InvertedIndex {
 	 * @param local local inverted index data structure
 	 */
 	public void merge(InvertedIndex local) {
+		mergeIndex(local);
+	}
+
+	/**
+	 * Helper method for {@link #merge(InvertedIndex)} and
+	 * {@link #replace(String, InvertedIndex)}
+	 * 
+	 * @param local local inverted index data structure
+	 */
+	private void mergeIndex(InvertedIndex local) {
+		forgetExpansions();
 		for (String key : local.index.keySet()) {
-			this.index.putIfAbsent(key, local.index.get(key));
+			forgetBounds(key);
+			// copy rather than share the inner collections, the local index may be merged into more than one index
 			for (String location : local.index.get(key).keySet()) {
+				if (!local.isLive(location)) {
+					continue;
+				}
+				document(location).words.add(key);
+				this.index.putIfAbsent(key, new TreeMap<>());
 				if (this.index.get(key).containsKey(location)) {
 					this.index.get(key).get(location).addAll(local.index.get(key).get(location));
 				} else {
-					this.index.get(key).put(location, local.index.get(key).get(location));
+					this.index.get(key).put(location, new TreeSet<>(local.index.get(key).get(location)));
 				}
 			}
 		}
+		for (Map.Entry<String, HashMap<String, Integer>> stem : local.surfaces.entrySet()) {
+			HashMap<String, Integer> words = this.surfaces.computeIfAbsent(stem.getKey(), key -> new HashMap<>());
+			for (Map.Entry<String, Integer> word : stem.getValue().entrySet()) {
+				words.merge(word.getKey(), word.getValue(), Integer::sum);
+			}
+		}
 		for (String key : local.countMap.keySet()) {
 			if (this.countMap.containsKey(key)) {
 				if (this.countMap.get(key) < local.countMap.get(key)) {
 					this.countMap.put(key, local.countMap.get(key));
+					setLength(document(key), local.countMap.get(key));
 				}
 			} else {
 				this.countMap.put(key, local.countMap.get(key));
+				setLength(document(key), local.countMap.get(key));
 			}
 		}
 	}
@@ -52,8 +52,9 @@ public class InvertedIndexAdder {
 			while ((line = reader.readLine()) != null) {
 				String[] parsedline = TextParser.parse(line);
 				for (String word : parsedline) {
-					word = stemmer.stem(word).toString();
-					index.add(word, location, counter);
+					String stem = stemmer.stem(word).toString();
+					index.add(stem, location, counter);
+					index.addSurface(stem, word);
 					counter++;
 				}
 			}
@@ -100,13 +101,22 @@ public class InvertedIndexAdder {
 			for (Path path : listing) {
 				if (Files.isDirectory(path)) {
 					traverseDirectory(path);
-				} else {
-					String lower = path.toString().toLowerCase();
-					if ((lower.endsWith(".txt")) || (lower.endsWith(".text"))) {
-						addToIndex(path);
-					}
+				} else if (isTextFile(path)) {
+					addToIndex(path);
 				}
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Returns whether the path has a text file extension, ".txt" or ".text"
+	 * (case-insensitive)
+	 * 
+	 * @param path the path
+	 * @return {@code true} if the path is a text file that should be indexed
+	 */
+	public static boolean isTextFile(Path path) {
+		String lower = path.toString().toLowerCase();
+		return lower.endsWith(".txt") || lower.endsWith(".text");
+	}
+}
@@ -15,6 +15,9 @@ import java.util.regex.Pattern;
  */
 public class LinkParser {
 
+	/** Regular expression that matches the href of an anchor tag. */
+	private static final Pattern LINK_REGEX = Pattern.compile("(?si)(<a[^>]*?)\\s*?href\\s*?=\\s*?\"(.+?)\".*?>");
+
 	/**
 	 * Removes the fragment component of a URL (if present), and properly encodes
 	 * the query string (if necessary).
@@ -48,24 +51,35 @@ public class LinkParser {
 	 */
 	public static ArrayList<URL> getValidLinks(URL base, String html) {
 		ArrayList<URL> links = new ArrayList<URL>();
-	
-		String regex = ("(?si)(<a[^>]*?)\\s*?href\\s*?=\\s*?\"(.+?)\".*?>"); 
-		Pattern pattern = Pattern.compile(regex);
-		Matcher matcher = pattern.matcher(html);
+		Matcher matcher = LINK_REGEX.matcher(html);
 
 		while (matcher.find()) {
-			
-			String matched = matcher.group(2);
-			
-			try {
-				links.add(normalize(new URL(base, matched)));
-			} catch (MalformedURLException | URISyntaxException e) {
-				e.printStackTrace();
+			URL link = toValidLink(base, matcher.group(2));
+			if (link != null) {
+				links.add(link);
 			}
 		}
 		return links;
 	}
-	
+
+	/**
+	 * Converts the href of a link to an absolute, normalized URL.
+	 *
+	 * @param base the base url used to convert relative links to absolute
+	 * @param href the href attribute value of the link
+	 * @return the normalized link, or {@code null} if it is not a valid HTTP(S)
+	 *         link
+	 */
+	public static URL toValidLink(URL base, String href) {
+		try {
+			URL link = normalize(new URL(base, href));
+			String protocol = link.getProtocol();
+			return protocol.equalsIgnoreCase("http") || protocol.equalsIgnoreCase("https") ? link : null;
+		} catch (MalformedURLException | URISyntaxException e) {
+			return null;
+		}
+	}
+
 	/**
 	 * Demonstrates this class.
 	 * @param args unused
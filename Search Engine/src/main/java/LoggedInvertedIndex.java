@@ -0,0 +1,264 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A thread safe inverted index that survives restarts. Every document
+ * operation ({@link #merge(InvertedIndex)},
+ * {@link #replace(String, InvertedIndex)} and {@link #remove(String)}) is
+ * appended to a write-ahead log and only returns once the log is on disk.
+ * {@link #snapshot()} saves the whole index and empties the log. When opened,
+ * the last snapshot is loaded and the log replayed on top of it, so nothing
+ * that returned before a crash is lost and a restart does not rebuild the
+ * index.
+ *
+ * Operations are logged in the same order they are applied, and concurrent
+ * operations share a single disk flush (group commit), see {@link IndexLog}.
+ * Words added one at a time with {@link #add(String, String, Integer)} are
+ * not logged.
+ *
+ * @author stephen
+ *
+ */
+public class LoggedInvertedIndex extends ThreadSafeInvertedIndex {
+
+	/**
+	 * Initialize Logger
+	 */
+	private final static Logger log = LogManager.getRootLogger();
+
+	/** Name of the snapshot file. */
+	private static final String SNAPSHOT = "snapshot.tsv";
+
+	/** Name of the write-ahead log file. */
+	private static final String LOG = "index.log";
+
+	/** Log record of {@link #merge(InvertedIndex)}. */
+	private static final byte MERGE = 'M';
+
+	/** Log record of {@link #replace(String, InvertedIndex)}. */
+	private static final byte REPLACE = 'P';
+
+	/** Log record of {@link #remove(String)}. */
+	private static final byte REMOVE = 'R';
+
+	/** The directory holding the snapshot and the log. */
+	private final Path directory;
+
+	/** The write-ahead log. */
+	private final IndexLog journal;
+
+	/** Lock object keeping the log in the same order the operations are applied. */
+	private final Object order;
+
+	/** Whether a snapshot or logged operations were found when opened. */
+	private boolean recovered;
+
+	/**
+	 * Constructor
+	 *
+	 * @param directory the directory holding the snapshot and the log
+	 * @throws IOException if unable to open the log
+	 */
+	private LoggedInvertedIndex(Path directory) throws IOException {
+		super();
+		this.directory = directory;
+		this.journal = new IndexLog(directory.resolve(LOG));
+		this.order = new Object();
+		this.recovered = false;
+	}
+
+	/**
+	 * Opens the index saved in the directory, or an empty index if there is none.
+	 *
+	 * @param directory the directory holding the snapshot and the log
+	 * @return the index
+	 * @throws IOException if unable to read the snapshot or the log
+	 */
+	public static LoggedInvertedIndex open(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		LoggedInvertedIndex index = new LoggedInvertedIndex(directory);
+		try {
+			index.recover();
+		} catch (IOException | RuntimeException e) {
+			index.close();
+			throw e;
+		}
+		return index;
+	}
+
+	/**
+	 * Returns whether a snapshot or logged operations were found when opened.
+	 *
+	 * @return {@code true} if the index was restored from disk
+	 */
+	public boolean isRecovered() {
+		return recovered;
+	}
+
+	@Override
+	public void merge(InvertedIndex local) {
+		byte[] record = encode(MERGE, "", local);
+		long sequence;
+		synchronized (order) {
+			sequence = journal.append(record);
+			super.merge(local);
+		}
+		sync(sequence);
+	}
+
+	@Override
+	public void replace(String location, InvertedIndex local) {
+		byte[] record = encode(REPLACE, location, local);
+		long sequence;
+		synchronized (order) {
+			sequence = journal.append(record);
+			super.replace(location, local);
+		}
+		sync(sequence);
+	}
+
+	@Override
+	public boolean remove(String location) {
+		byte[] record = encode(REMOVE, location, null);
+		long sequence;
+		boolean removed;
+		synchronized (order) {
+			removed = super.remove(location);
+			if (!removed) {
+				return false;
+			}
+			sequence = journal.append(record);
+		}
+		sync(sequence);
+		return true;
+	}
+
+	/**
+	 * Saves the whole index and empties the log. Operations wait until the
+	 * snapshot is done.
+	 *
+	 * @throws IOException if unable to write the snapshot
+	 */
+	public void snapshot() throws IOException {
+		synchronized (order) {
+			Path temp = directory.resolve(SNAPSHOT + ".tmp");
+			toSegment(temp);
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				channel.force(true);
+			}
+			Files.move(temp, directory.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			journal.truncate();
+		}
+	}
+
+	/**
+	 * Closes the log. The index must not be changed afterwards.
+	 *
+	 * @throws IOException if unable to close the log
+	 */
+	public void close() throws IOException {
+		journal.close();
+	}
+
+	/**
+	 * Loads the snapshot and replays the log on top of it.
+	 *
+	 * @throws IOException if unable to read the snapshot or the log
+	 */
+	private void recover() throws IOException {
+		Path snapshot = directory.resolve(SNAPSHOT);
+		if (Files.exists(snapshot)) {
+			super.merge(InvertedIndex.fromSegment(snapshot));
+			recovered = true;
+		}
+
+		int replayed;
+		try {
+			replayed = journal.replay(this::apply);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		if (replayed > 0) {
+			recovered = true;
+			log.info("Replayed " + replayed + " index operations from " + directory);
+		}
+	}
+
+	/**
+	 * Applies a logged operation without logging it again.
+	 *
+	 * @param record the log record
+	 */
+	private void apply(byte[] record) {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+			byte type = in.readByte();
+			String location = in.readUTF();
+			switch (type) {
+			case MERGE:
+				super.merge(InvertedIndex.read(in));
+				break;
+			case REPLACE:
+				super.replace(location, InvertedIndex.read(in));
+				break;
+			case REMOVE:
+				super.remove(location);
+				break;
+			default:
+				throw new IOException("Unknown operation " + type + " in the log of " + directory);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Encodes an operation as a log record.
+	 *
+	 * @param type     the type of operation
+	 * @param location the location, or an empty string for a merge
+	 * @param local    the postings added by the operation, or {@code null}
+	 * @return the log record
+	 */
+	private static byte[] encode(byte type, String location, InvertedIndex local) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(type);
+			out.writeUTF(location);
+			if (local != null) {
+				local.write(out);
+			}
+		} catch (IOException e) {
+			// writing to memory does not fail
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Waits until a logged operation is on disk.
+	 *
+	 * @param sequence the sequence number of the operation
+	 * @throws UncheckedIOException if unable to write the log
+	 */
+	private void sync(long sequence) {
+		try {
+			journal.sync(sequence);
+		} catch (IOException e) {
+			log.error("Index operation applied but not logged to " + directory + ": " + e.getMessage());
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -2,7 +2,6 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -95,8 +94,8 @@ public class MultiThreadQueryFileParser implements QueryFileParserInterface {
 		@Override
 		public void run() {
 			try {
-				TreeSet<String> queryLine = TextFileStemmer.uniqueStems(line);
-				String query = String.join(" ", queryLine);
+				Query queryLine = Query.parse(line);
+				String query = queryLine.toString();
 
 				if (!query.isEmpty()) {
 					synchronized (results) {
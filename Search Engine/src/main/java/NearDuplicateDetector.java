@@ -0,0 +1,325 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detects near-duplicate pages (printer views, pages that only differ by a
+ * session parameter, mirrors) by their content, so they can be skipped before
+ * they are stemmed and merged into the index.
+ *
+ * Each page is reduced to a MinHash signature over its overlapping word
+ * shingles. The fraction of equal signature values estimates the share of
+ * shingles two pages have in common (their Jaccard similarity), and pages at
+ * or above the similarity threshold are near-duplicates. To avoid comparing
+ * every pair of pages, signatures are split into bands and only pages with an
+ * identical band are compared.
+ *
+ * @see WebCrawler
+ */
+public class NearDuplicateDetector {
+
+	/** The default similarity threshold, in percent. */
+	public static final int DEFAULT_SIMILARITY = 90;
+
+	/** The number of words in a shingle. */
+	private static final int SHINGLE = 3;
+
+	/** The number of values in a signature. */
+	private static final int HASHES = 64;
+
+	/** The number of signature values in a band. */
+	private static final int ROWS = 4;
+
+	/** The minimum number of equal signature values for pages to be near-duplicates. */
+	private final int threshold;
+
+	/** For each band, the pages with the same values in that band. */
+	private final List<HashMap<Band, List<Page>>> bands;
+
+	/** The signature of each page added so far, by location. */
+	private final HashMap<String, Page> pages;
+
+	/** Number of pages found to be near-duplicates. */
+	private final AtomicLong duplicates;
+
+	/** Number of bytes of near-duplicate pages that were not indexed. */
+	private final AtomicLong bytes;
+
+	/** Number of word positions of near-duplicate pages that were not indexed. */
+	private final AtomicLong postings;
+
+	/**
+	 * Creates a detector.
+	 *
+	 * @param similarity the share of shingles pages must have in common to be
+	 *                   near-duplicates, in percent
+	 */
+	public NearDuplicateDetector(int similarity) {
+		int percent = Math.max(1, Math.min(100, similarity));
+		this.threshold = (int) Math.ceil(HASHES * percent / 100.0);
+		this.bands = new ArrayList<>();
+		for (int i = 0; i < HASHES / ROWS; i++) {
+			bands.add(new HashMap<>());
+		}
+		this.pages = new HashMap<>();
+		this.duplicates = new AtomicLong();
+		this.bytes = new AtomicLong();
+		this.postings = new AtomicLong();
+	}
+
+	/**
+	 * Creates a detector with the default similarity threshold.
+	 */
+	public NearDuplicateDetector() {
+		this(DEFAULT_SIMILARITY);
+	}
+
+	/**
+	 * Checks whether a page is a near-duplicate of a page added before, and adds
+	 * it if it is not. A page added again under the same location replaces its
+	 * old signature. Pages shorter than a shingle are always added.
+	 *
+	 * @param location the location of the page
+	 * @param words    the parsed words of the page, before stemming
+	 * @return the location of the page it duplicates, or {@code null} if the
+	 *         page was added
+	 */
+	public String add(String location, String[] words) {
+		if (words.length < SHINGLE) {
+			remove(location);
+			return null;
+		}
+		long[] signature = signature(words);
+
+		synchronized (pages) {
+			remove(location);
+			Page match = find(signature);
+			if (match != null) {
+				return match.location;
+			}
+
+			Page page = new Page(location, signature);
+			pages.put(location, page);
+			for (int i = 0; i < bands.size(); i++) {
+				bands.get(i).computeIfAbsent(new Band(signature, i), key -> new ArrayList<>()).add(page);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Counts a page that was skipped because it is a near-duplicate.
+	 *
+	 * @param size  the size of the page in bytes
+	 * @param words the number of words of the page
+	 */
+	public void skipped(long size, long words) {
+		duplicates.incrementAndGet();
+		bytes.addAndGet(size);
+		postings.addAndGet(words);
+	}
+
+	/**
+	 * Forgets the signature of a page, for example once it was removed from the
+	 * index.
+	 *
+	 * @param location the location of the page
+	 */
+	public void remove(String location) {
+		synchronized (pages) {
+			Page page = pages.remove(location);
+			if (page != null) {
+				for (int i = 0; i < bands.size(); i++) {
+					Band key = new Band(page.signature, i);
+					List<Page> same = bands.get(i).get(key);
+					same.remove(page);
+					if (same.isEmpty()) {
+						bands.get(i).remove(key);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of pages found to be near-duplicates.
+	 *
+	 * @return the number of near-duplicate pages
+	 */
+	public long getDuplicates() {
+		return duplicates.get();
+	}
+
+	/**
+	 * Returns the number of bytes of near-duplicate pages that were not indexed.
+	 *
+	 * @return the number of bytes saved
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Returns the number of word positions of near-duplicate pages that were not
+	 * indexed.
+	 *
+	 * @return the number of postings saved
+	 */
+	public long getPostings() {
+		return postings.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d pages, %d bytes, %d postings", getDuplicates(), getBytes(), getPostings());
+	}
+
+	/**
+	 * Finds a page similar enough to the given signature. Must be called while
+	 * holding the lock.
+	 *
+	 * @param signature the signature
+	 * @return the page, or {@code null} if there is none
+	 */
+	private Page find(long[] signature) {
+		HashSet<Page> compared = new HashSet<>();
+		for (int i = 0; i < bands.size(); i++) {
+			List<Page> same = bands.get(i).get(new Band(signature, i));
+			if (same != null) {
+				for (Page page : same) {
+					if (compared.add(page) && matches(page.signature, signature) >= threshold) {
+						return page;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of equal values of two signatures.
+	 *
+	 * @param first  the first signature
+	 * @param second the second signature
+	 * @return the number of equal values
+	 */
+	private static int matches(long[] first, long[] second) {
+		int equal = 0;
+		for (int i = 0; i < HASHES; i++) {
+			if (first[i] == second[i]) {
+				equal++;
+			}
+		}
+		return equal;
+	}
+
+	/**
+	 * Returns the MinHash signature of the word shingles of a page. Each value
+	 * is the smallest hash of any shingle under a different hash function.
+	 *
+	 * @param words the words of the page, at least one shingle long
+	 * @return the signature
+	 */
+	private static long[] signature(String[] words) {
+		long[] signature = new long[HASHES];
+		Arrays.fill(signature, Long.MAX_VALUE);
+		StringBuilder shingle = new StringBuilder();
+
+		for (int i = 0; i + SHINGLE <= words.length; i++) {
+			shingle.setLength(0);
+			for (int j = i; j < i + SHINGLE; j++) {
+				shingle.append(words[j]).append(' ');
+			}
+			long hash = CrawlFrontier.fingerprint(shingle.toString());
+			for (int h = 0; h < HASHES; h++) {
+				signature[h] = Math.min(signature[h], mix(hash + h * 0x9e3779b97f4a7c15L));
+			}
+		}
+		return signature;
+	}
+
+	/**
+	 * Scrambles a 64-bit value (the SplitMix64 finalizer), used to derive the
+	 * independent hash functions of a signature.
+	 *
+	 * @param value the value
+	 * @return the scrambled value
+	 */
+	private static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return value ^ (value >>> 31);
+	}
+
+	/**
+	 * The signature of a page.
+	 */
+	private static class Page {
+
+		/** The location of the page. */
+		private final String location;
+
+		/** The signature of the page. */
+		private final long[] signature;
+
+		/**
+		 * Creates a page.
+		 *
+		 * @param location  the location of the page
+		 * @param signature the signature of the page
+		 */
+		public Page(String location, long[] signature) {
+			this.location = location;
+			this.signature = signature;
+		}
+	}
+
+	/**
+	 * The values of one band of a signature, used as a hash key.
+	 */
+	private static class Band {
+
+		/** The signature. */
+		private final long[] signature;
+
+		/** The index of the first value of the band. */
+		private final int from;
+
+		/**
+		 * Creates a band.
+		 *
+		 * @param signature the signature
+		 * @param band      the number of the band
+		 */
+		public Band(long[] signature, int band) {
+			this.signature = signature;
+			this.from = band * ROWS;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Band)) {
+				return false;
+			}
+			Band band = (Band) other;
+			for (int i = 0; i < ROWS; i++) {
+				if (signature[from + i] != band.signature[band.from + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			long hash = 0;
+			for (int i = 0; i < ROWS; i++) {
+				hash = hash * 31 + signature[from + i];
+			}
+			return Long.hashCode(hash);
+		}
+	}
+}
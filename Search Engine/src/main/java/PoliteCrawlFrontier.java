@@ -0,0 +1,210 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A crawl frontier that keeps a separate queue for every host. URLs are handed
+ * out round-robin across the hosts that are ready, where a host is ready if it
+ * has fewer than the maximum number of fetches in progress and the minimum
+ * delay has passed since its last fetch finished. A crawl of several sites is
+ * then spread across all of them instead of hammering one server with every
+ * thread.
+ *
+ * @see CrawlFrontier
+ */
+public class PoliteCrawlFrontier extends CrawlFrontier {
+
+	/**
+	 * Initialize Logger
+	 */
+	private final static Logger log = LogManager.getRootLogger();
+
+	/** The default minimum delay between fetches from one host, in milliseconds. */
+	public static final int DEFAULT_DELAY = 250;
+
+	/** The default maximum number of fetches in progress per host. */
+	public static final int DEFAULT_PER_HOST = 2;
+
+	/** The queue and politeness state of every host seen so far. */
+	private final HashMap<String, Host> hosts;
+
+	/** Hosts with queued urls, in round-robin order. */
+	private final ArrayDeque<Host> waiting;
+
+	/** Minimum delay between fetches from one host, in nanoseconds. */
+	private final long delay;
+
+	/** Maximum number of fetches in progress per host. */
+	private final int perHost;
+
+	/** Lock object guarding the host queues. */
+	private final Object lock;
+
+	/**
+	 * Creates a polite frontier.
+	 *
+	 * @param max     the maximum number of URLs to crawl, at least 1
+	 * @param bloom   whether to remember seen URLs with a Bloom filter
+	 * @param delay   minimum delay between fetches from one host, in milliseconds
+	 * @param perHost maximum number of fetches in progress per host
+	 */
+	public PoliteCrawlFrontier(int max, boolean bloom, int delay, int perHost) {
+		super(max, bloom);
+		this.hosts = new HashMap<>();
+		this.waiting = new ArrayDeque<>();
+		this.delay = TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+		this.perHost = Math.max(1, perHost);
+		this.lock = new Object();
+	}
+
+	@Override
+	protected void enqueue(URL url) {
+		synchronized (lock) {
+			Host host = hosts.computeIfAbsent(key(url), Host::new);
+			if (host.urls.isEmpty()) {
+				waiting.addLast(host);
+			}
+			host.urls.addLast(url);
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Removes the next URL to fetch, waiting until one of the hosts with queued
+	 * URLs is ready.
+	 *
+	 * @return the next url, or {@code null} if none are waiting or interrupted
+	 */
+	@Override
+	public URL poll() {
+		synchronized (lock) {
+			while (!waiting.isEmpty()) {
+				long now = System.nanoTime();
+				long wait = Long.MAX_VALUE;
+
+				for (int i = 0, n = waiting.size(); i < n; i++) {
+					Host host = waiting.pollFirst();
+					long ready = host.readyAt(now);
+
+					if (ready <= now) {
+						URL url = host.urls.pollFirst();
+						host.active++;
+						if (!host.urls.isEmpty()) {
+							waiting.addLast(host);
+						}
+						return url;
+					}
+
+					waiting.addLast(host);
+					if (ready != Long.MAX_VALUE) {
+						wait = Math.min(wait, ready - now);
+					}
+				}
+
+				try {
+					if (wait == Long.MAX_VALUE) {
+						lock.wait();
+					} else {
+						TimeUnit.NANOSECONDS.timedWait(lock, wait);
+					}
+				} catch (InterruptedException e) {
+					log.warn("Interrupted while waiting for a polite host");
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+			return null;
+		}
+	}
+
+	@Override
+	public boolean hasPending() {
+		synchronized (lock) {
+			return !waiting.isEmpty();
+		}
+	}
+
+	@Override
+	protected void savePending(DataOutputStream out) throws IOException {
+		synchronized (lock) {
+			for (Host host : waiting) {
+				for (URL url : host.urls) {
+					out.writeUTF(url.toString());
+				}
+			}
+		}
+	}
+
+	@Override
+	public void done(URL url) {
+		synchronized (lock) {
+			Host host = hosts.get(key(url));
+			if (host != null) {
+				host.active--;
+				host.last = System.nanoTime();
+				host.fetched = true;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Returns the host a URL is queued under.
+	 *
+	 * @param url the url
+	 * @return the lowercase host name
+	 */
+	private static String key(URL url) {
+		return url.getHost().toLowerCase();
+	}
+
+	/**
+	 * The queued URLs and politeness state of a single host.
+	 */
+	private class Host {
+
+		/** URLs of this host waiting to be fetched. */
+		private final ArrayDeque<URL> urls;
+
+		/** Number of fetches from this host in progress. */
+		private int active;
+
+		/** When the last fetch from this host finished, in nanoseconds. */
+		private long last;
+
+		/** Whether any fetch from this host has finished yet. */
+		private boolean fetched;
+
+		/**
+		 * Creates the state for a host.
+		 *
+		 * @param name the host name (unused, for {@code computeIfAbsent})
+		 */
+		public Host(String name) {
+			this.urls = new ArrayDeque<>();
+			this.active = 0;
+			this.last = 0;
+			this.fetched = false;
+		}
+
+		/**
+		 * Returns when this host may be fetched from next.
+		 *
+		 * @param now the current time in nanoseconds
+		 * @return the time this host is ready, or {@link Long#MAX_VALUE} if it has
+		 *         too many fetches in progress
+		 */
+		public long readyAt(long now) {
+			if (active >= perHost) {
+				return Long.MAX_VALUE;
+			}
+			return fetched ? last + delay : now;
+		}
+	}
+}
@@ -0,0 +1,676 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * A parsed search query. Besides plain words, a query may hold quoted phrases,
+ * which match the stems in order at consecutive positions, words joined by the
+ * NEAR operator, which match when the words are at most the given number of
+ * positions apart, and the boolean operators AND, OR and NOT with parentheses:
+ *
+ * <pre>
+ * "apple pie" recipe
+ * apple NEAR/3 pie
+ * (apple OR pear) AND pie NOT crumble
+ * </pre>
+ *
+ * Words next to each other without an operator are joined by OR, so a location
+ * matches a query of plain words if it matches any of them. NOT binds tightest
+ * and then AND, and a NOT directly after another clause means AND NOT.
+ * Operators must be written in capitals, so the words "and", "or", "not" and
+ * "near" can still be searched for. Parentheses only count at the start or end
+ * of a word, and a line whose operators and parentheses do not form a valid
+ * query is searched as plain words.
+ *
+ * @see InvertedIndex#search(Query, boolean)
+ */
+public class Query {
+
+	/** Matches the NEAR operator and captures its distance. */
+	public static final Pattern NEAR_REGEX = Pattern.compile("NEAR/(\\d{1,4})");
+
+	/**
+	 * The kind of a clause.
+	 */
+	public enum Type {
+		/** A single stem. */
+		TERM,
+		/** Stems at consecutive positions, in order. */
+		PHRASE,
+		/** Two stems at most a distance apart, in either order. */
+		NEAR,
+		/** Every child clause matches. */
+		AND,
+		/** Any child clause matches. */
+		OR,
+		/** The only child clause does not match. */
+		NOT
+	}
+
+	/**
+	 * One clause of a query.
+	 */
+	public static class Clause implements Comparable<Clause> {
+
+		/** The kind of clause. */
+		private final Type type;
+
+		/** The stems of a word, phrase or NEAR clause, in query order. */
+		private final List<String> stems;
+
+		/** The largest distance between the stems of a NEAR clause. */
+		private final int distance;
+
+		/** The child clauses of an AND, OR or NOT clause, in sorted order. */
+		private final List<Clause> children;
+
+		/** The canonical text of the clause. */
+		private final String text;
+
+		/**
+		 * Creates a word, phrase or NEAR clause.
+		 *
+		 * @param type     the kind of clause
+		 * @param stems    the stems of the clause, in query order
+		 * @param distance the largest distance between the stems of a NEAR clause
+		 */
+		public Clause(Type type, List<String> stems, int distance) {
+			this.type = type;
+			this.stems = List.copyOf(stems);
+			this.distance = distance;
+			this.children = List.of();
+			switch (type) {
+			case PHRASE:
+				this.text = "\"" + String.join(" ", stems) + "\"";
+				break;
+			case NEAR:
+				this.text = String.join(" NEAR/" + distance + " ", stems);
+				break;
+			default:
+				this.text = stems.get(0);
+			}
+		}
+
+		/**
+		 * Creates an AND, OR or NOT clause. Duplicate children are dropped.
+		 *
+		 * @param type     the kind of clause
+		 * @param children the child clauses, exactly one for NOT
+		 */
+		public Clause(Type type, Collection<Clause> children) {
+			this.type = type;
+			this.stems = List.of();
+			this.distance = 0;
+			this.children = List.copyOf(new TreeSet<>(children));
+			ArrayList<String> parts = new ArrayList<>();
+			for (Clause child : this.children) {
+				// only a lower precedence child needs parentheses
+				boolean wrap = type == Type.NOT ? child.isBoolean() : type == Type.AND && child.type == Type.OR;
+				parts.add(wrap ? "(" + child.text + ")" : child.text);
+			}
+			this.text = type == Type.NOT ? "NOT " + parts.get(0) : String.join(" " + type + " ", parts);
+		}
+
+		/**
+		 * Returns the kind of clause.
+		 *
+		 * @return the type
+		 */
+		public Type getType() {
+			return type;
+		}
+
+		/**
+		 * Returns the stems of a word, phrase or NEAR clause.
+		 *
+		 * @return the stems, in query order, or an empty list for a boolean clause
+		 */
+		public List<String> getStems() {
+			return stems;
+		}
+
+		/**
+		 * Returns the largest distance between the stems of a NEAR clause.
+		 *
+		 * @return the distance in positions
+		 */
+		public int getDistance() {
+			return distance;
+		}
+
+		/**
+		 * Returns the child clauses of an AND, OR or NOT clause.
+		 *
+		 * @return the children, in sorted order, or an empty list for a word,
+		 *         phrase or NEAR clause
+		 */
+		public List<Clause> getChildren() {
+			return children;
+		}
+
+		/**
+		 * Returns whether this is an AND, OR or NOT clause.
+		 *
+		 * @return {@code true} if the clause combines other clauses
+		 */
+		public boolean isBoolean() {
+			return type == Type.AND || type == Type.OR || type == Type.NOT;
+		}
+
+		@Override
+		public int compareTo(Clause other) {
+			return text.compareTo(other.text);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Clause && text.equals(((Clause) other).text);
+		}
+
+		@Override
+		public int hashCode() {
+			return text.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+
+	/** The distinct clauses, any of which a location must match, in sorted order. */
+	private final List<Clause> clauses;
+
+	/** The canonical text of the query. */
+	private final String text;
+
+	/**
+	 * Creates a query from its clauses.
+	 *
+	 * @param clauses the clauses, any of which a location must match; duplicates
+	 *                are dropped
+	 */
+	public Query(Set<Clause> clauses) {
+		TreeSet<Clause> flat = new TreeSet<>();
+		for (Clause clause : clauses) {
+			flat.addAll(clause.type == Type.OR ? clause.children : List.of(clause));
+		}
+		this.clauses = List.copyOf(flat);
+		ArrayList<String> parts = new ArrayList<>();
+		for (Clause clause : this.clauses) {
+			parts.add(clause.text);
+		}
+		// a clause starting with NOT would join the one before it without an OR
+		this.text = String.join(isBoolean() ? " OR " : " ", parts);
+	}
+
+	/**
+	 * Creates a query of plain stems.
+	 *
+	 * @param stems the query stems
+	 * @return the query
+	 */
+	public static Query of(Set<String> stems) {
+		TreeSet<Clause> clauses = new TreeSet<>();
+		for (String stem : stems) {
+			clauses.add(new Clause(Type.TERM, List.of(stem), 0));
+		}
+		return new Query(clauses);
+	}
+
+	/**
+	 * Parses a query line. Words are cleaned and stemmed the same way as
+	 * {@link TextFileStemmer#uniqueStems(String)}, so a line without quotes or
+	 * operators gives the same stems. Parsing never fails: a line with an
+	 * operator missing a clause on either side, unmatched parentheses or a word
+	 * without stems is not a valid query, and gives the stems of all its words,
+	 * operators included, as before operators were supported. A chain of NEAR
+	 * operators such as a NEAR/2 b NEAR/2 c requires each neighbouring pair to be
+	 * near.
+	 *
+	 * @param line the query line
+	 * @return the query
+	 */
+	public static Query parse(String line) {
+		Parser parser = new Parser(line);
+		if (!parser.isValid()) {
+			return of(TextFileStemmer.uniqueStems(line));
+		}
+		TreeSet<Clause> clauses = new TreeSet<>();
+		while (parser.hasNext()) {
+			clauses.addAll(parser.parseOr());
+			if (parser.peekIs(")")) {
+				parser.next();
+			}
+		}
+		return new Query(clauses);
+	}
+
+	/**
+	 * Returns the clauses of the query.
+	 *
+	 * @return the distinct clauses, any of which a location must match, in
+	 *         sorted order
+	 */
+	public List<Clause> getClauses() {
+		return clauses;
+	}
+
+	/**
+	 * Returns every stem used by the query.
+	 *
+	 * @return the stems, in sorted order
+	 */
+	public TreeSet<String> getStems() {
+		TreeSet<String> stems = new TreeSet<>();
+		for (Clause clause : clauses) {
+			addStems(clause, stems);
+		}
+		return stems;
+	}
+
+	/**
+	 * Adds the stems of a clause and its children.
+	 *
+	 * @param clause the clause
+	 * @param stems  the stems found so far
+	 */
+	private static void addStems(Clause clause, Set<String> stems) {
+		stems.addAll(clause.stems);
+		for (Clause child : clause.children) {
+			addStems(child, stems);
+		}
+	}
+
+	/**
+	 * Returns whether the query uses AND or NOT, so that a location may match
+	 * some of its words and phrases without matching the query.
+	 *
+	 * @return {@code false} if the query matches any location matching one of
+	 *         its clauses
+	 */
+	public boolean isBoolean() {
+		for (Clause clause : clauses) {
+			if (clause.isBoolean()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether the query has no clauses.
+	 *
+	 * @return {@code true} if nothing is searched for
+	 */
+	public boolean isEmpty() {
+		return clauses.isEmpty();
+	}
+
+	/**
+	 * Returns the canonical text of the query, in which the clauses are sorted
+	 * and duplicates are dropped. Parsing the text gives the same query. For a
+	 * query of plain words this is the same as joining its sorted unique stems
+	 * with spaces.
+	 */
+	@Override
+	public String toString() {
+		return text;
+	}
+
+	/**
+	 * Recursive descent parser for query lines.
+	 */
+	private static class Parser {
+
+		/** The tokens of the line. */
+		private final ArrayList<String> tokens;
+
+		/** The stemmer for words and phrases. */
+		private final Stemmer stemmer;
+
+		/** The index of the next token. */
+		private int next;
+
+		/**
+		 * Splits a line into tokens: parentheses, quoted phrases and words. Words
+		 * are separated by the same whitespace as in {@link TextParser#split(String)}.
+		 * Parentheses are only split from the start or end of a word, so that
+		 * foo(bar) is still the word foobar.
+		 *
+		 * @param line the query line
+		 */
+		public Parser(String line) {
+			this.tokens = new ArrayList<>();
+			this.stemmer = new SnowballStemmer(TextFileStemmer.DEFAULT);
+			this.next = 0;
+
+			int i = 0;
+			while (i < line.length()) {
+				char c = line.charAt(i);
+				int end = i + 1;
+				if (isSpace(c)) {
+					i = end;
+					continue;
+				} else if (c == '"' && line.indexOf('"', i + 1) > 0) {
+					end = line.indexOf('"', i + 1) + 1;
+				} else if (c != '(' && c != ')') {
+					while (end < line.length() && !isSpace(line.charAt(end))) {
+						end++;
+					}
+					while (end > i + 1 && line.charAt(end - 1) == ')') {
+						end--;
+					}
+				}
+				tokens.add(line.substring(i, end));
+				i = end;
+			}
+		}
+
+		/**
+		 * Returns whether the tokens form a valid query: every operator has the
+		 * clauses it needs, parentheses match and enclose a clause, every word
+		 * has a stem, and NEAR joins two single words.
+		 *
+		 * @return {@code true} if the line should be parsed as a query
+		 */
+		public boolean isValid() {
+			return checkOr(0) == tokens.size();
+		}
+
+		/**
+		 * Checks clauses joined by OR or nothing, up to a closing parenthesis.
+		 *
+		 * @param start the index of the first token
+		 * @return the index after the clauses, or -1 if they are not valid
+		 */
+		private int checkOr(int start) {
+			int i = checkAnd(start);
+			while (i >= 0 && i < tokens.size() && !tokens.get(i).equals(")")) {
+				if (tokens.get(i).equals("OR")) {
+					i++;
+				}
+				i = checkAnd(i);
+			}
+			return i;
+		}
+
+		/**
+		 * Checks clauses joined by AND or NOT.
+		 *
+		 * @param start the index of the first token
+		 * @return the index after the clauses, or -1 if they are not valid
+		 */
+		private int checkAnd(int start) {
+			int i = checkNot(start);
+			while (i >= 0 && i < tokens.size() && (tokens.get(i).equals("AND") || tokens.get(i).equals("NOT"))) {
+				if (tokens.get(i).equals("AND")) {
+					i++;
+				}
+				i = checkNot(i);
+			}
+			return i;
+		}
+
+		/**
+		 * Checks a clause that may be negated.
+		 *
+		 * @param start the index of the first token
+		 * @return the index after the clause, or -1 if it is not valid
+		 */
+		private int checkNot(int start) {
+			int i = start;
+			while (i < tokens.size() && tokens.get(i).equals("NOT")) {
+				i++;
+			}
+			return checkPrimary(i);
+		}
+
+		/**
+		 * Checks a parenthesized group, a phrase, or a word with any NEAR
+		 * operators following it.
+		 *
+		 * @param start the index of the first token
+		 * @return the index after the clause, or -1 if it is not valid
+		 */
+		private int checkPrimary(int start) {
+			if (start < 0 || start >= tokens.size()) {
+				return -1;
+			}
+			String token = tokens.get(start);
+			if (token.equals("(")) {
+				int end = checkOr(start + 1);
+				return end >= 0 && end < tokens.size() && tokens.get(end).equals(")") ? end + 1 : -1;
+			}
+			List<String> stems = stems(token);
+			if (stems.isEmpty()) {
+				return -1;
+			}
+			int i = start + 1;
+			while (i < tokens.size() && isNear(tokens.get(i))) {
+				if (stems.size() != 1 || i + 1 >= tokens.size()) {
+					return -1;
+				}
+				stems = stems(tokens.get(i + 1));
+				if (stems.size() != 1) {
+					return -1;
+				}
+				i += 2;
+			}
+			return i;
+		}
+
+		/**
+		 * Returns whether tokens are left.
+		 *
+		 * @return {@code true} if tokens are left
+		 */
+		public boolean hasNext() {
+			return next < tokens.size();
+		}
+
+		/**
+		 * Returns whether the next token is the given one.
+		 *
+		 * @param token the token
+		 * @return {@code true} if the next token equals it
+		 */
+		public boolean peekIs(String token) {
+			return hasNext() && tokens.get(next).equals(token);
+		}
+
+		/**
+		 * Returns the next token and moves past it.
+		 *
+		 * @return the token
+		 */
+		public String next() {
+			return tokens.get(next++);
+		}
+
+		/**
+		 * Parses clauses joined by OR or nothing, up to a closing parenthesis.
+		 *
+		 * @return the clauses, any of which must match
+		 */
+		public TreeSet<Clause> parseOr() {
+			TreeSet<Clause> clauses = new TreeSet<>();
+			while (hasNext() && !peekIs(")")) {
+				if (peekIs("OR")) {
+					next();
+					continue;
+				}
+				Clause clause = parseAnd();
+				if (clause != null) {
+					clauses.addAll(clause.type == Type.OR ? clause.children : List.of(clause));
+				}
+			}
+			return clauses;
+		}
+
+		/**
+		 * Parses clauses joined by AND, or by NOT meaning AND NOT.
+		 *
+		 * @return the clause, or {@code null} if nothing was searched for
+		 */
+		private Clause parseAnd() {
+			TreeSet<Clause> clauses = new TreeSet<>();
+			add(clauses, parseNot());
+			while (peekIs("AND") || peekIs("NOT")) {
+				if (peekIs("AND")) {
+					next();
+				}
+				add(clauses, parseNot());
+			}
+			if (clauses.size() <= 1) {
+				return clauses.isEmpty() ? null : clauses.first();
+			}
+			return new Clause(Type.AND, clauses);
+		}
+
+		/**
+		 * Adds a clause to the children of an AND clause, flattening nested AND
+		 * clauses.
+		 *
+		 * @param clauses the children so far
+		 * @param clause  the clause to add, or {@code null}
+		 */
+		private static void add(Set<Clause> clauses, Clause clause) {
+			if (clause != null) {
+				clauses.addAll(clause.type == Type.AND ? clause.children : List.of(clause));
+			}
+		}
+
+		/**
+		 * Parses a clause that may be negated.
+		 *
+		 * @return the clause, or {@code null} if nothing was searched for
+		 */
+		private Clause parseNot() {
+			if (peekIs("NOT")) {
+				next();
+				Clause clause = parseNot();
+				if (clause == null) {
+					return null;
+				}
+				return clause.type == Type.NOT ? clause.children.get(0) : new Clause(Type.NOT, List.of(clause));
+			}
+			return parsePrimary();
+		}
+
+		/**
+		 * Parses a parenthesized group, a phrase, or a word with any NEAR
+		 * operators following it.
+		 *
+		 * @return the clause, or {@code null} if nothing was searched for
+		 */
+		private Clause parsePrimary() {
+			if (!hasNext()) {
+				return null;
+			}
+			String token = next();
+			if (token.equals("(")) {
+				TreeSet<Clause> clauses = parseOr();
+				if (peekIs(")")) {
+					next();
+				}
+				if (clauses.size() <= 1) {
+					return clauses.isEmpty() ? null : clauses.first();
+				}
+				return new Clause(Type.OR, clauses);
+			}
+			if (token.equals(")") || token.equals("AND") || token.equals("OR") || isNear(token)) {
+				// an operator without a clause before it
+				return null;
+			}
+
+			List<String> stems = stems(token);
+			if (stems.size() > 1) {
+				if (isQuoted(token)) {
+					return new Clause(Type.PHRASE, stems, 0);
+				}
+				// only quotes make a phrase
+				TreeSet<Clause> words = new TreeSet<>();
+				for (String stem : stems) {
+					words.add(new Clause(Type.TERM, List.of(stem), 0));
+				}
+				return new Clause(Type.OR, words);
+			} else if (stems.isEmpty()) {
+				return null;
+			}
+
+			String left = stems.get(0);
+			TreeSet<Clause> nears = new TreeSet<>();
+			while (hasNext() && isNear(tokens.get(next)) && next + 1 < tokens.size()) {
+				List<String> right = stems(tokens.get(next + 1));
+				if (right.size() != 1) {
+					break;
+				}
+				Matcher matcher = NEAR_REGEX.matcher(next());
+				matcher.matches();
+				next();
+				nears.add(new Clause(Type.NEAR, List.of(left, right.get(0)), Integer.parseInt(matcher.group(1))));
+				left = right.get(0);
+			}
+			if (nears.isEmpty()) {
+				return new Clause(Type.TERM, stems, 0);
+			}
+			return nears.size() == 1 ? nears.first() : new Clause(Type.AND, nears);
+		}
+
+		/**
+		 * Returns whether a token is a NEAR operator.
+		 *
+		 * @param token the token
+		 * @return {@code true} if the token is NEAR/k
+		 */
+		private static boolean isNear(String token) {
+			return NEAR_REGEX.matcher(token).matches();
+		}
+
+		/**
+		 * Returns whether a character separates words.
+		 *
+		 * @param c the character
+		 * @return {@code true} if the character is whitespace
+		 * @see TextParser#SPLIT_REGEX
+		 */
+		private static boolean isSpace(char c) {
+			return TextParser.SPLIT_REGEX.matcher(String.valueOf(c)).matches();
+		}
+
+		/**
+		 * Returns whether a token is a quoted phrase.
+		 *
+		 * @param token the token
+		 * @return {@code true} if the token starts and ends with a quote
+		 */
+		private static boolean isQuoted(String token) {
+			return token.length() > 1 && token.startsWith("\"") && token.endsWith("\"");
+		}
+
+		/**
+		 * Returns the stems of a word or quoted phrase, or none for operators and
+		 * parentheses.
+		 *
+		 * @param token the token
+		 * @return the stems, in order
+		 */
+		private List<String> stems(String token) {
+			if (token.equals("(") || token.equals(")") || token.equals("AND") || token.equals("OR")
+					|| token.equals("NOT") || isNear(token)) {
+				return List.of();
+			}
+			if (isQuoted(token)) {
+				token = token.substring(1, token.length() - 1);
+			}
+			return TextFileStemmer.listStems(token, stemmer);
+		}
+	}
+}
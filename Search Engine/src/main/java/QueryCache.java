@@ -0,0 +1,242 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A bounded cache of search results, keyed by the canonical text of the query
+ * and whether the search is exact. The cache is bounded by the total number of
+ * cached results rather than the number of queries, and the least recently
+ * used queries are evicted first.
+ *
+ * Each entry remembers the generation of the index it was computed from. The
+ * index moves to a new generation whenever it changes, which invalidates every
+ * entry at once, so a cached result is never stale.
+ *
+ * Entries may hold only the best results of a query (see
+ * {@link InvertedIndex#search(Query, boolean, int, int)}), in which case they
+ * only answer requests for at most as many results.
+ *
+ * @see ThreadSafeInvertedIndex#setCache(QueryCache)
+ */
+public class QueryCache {
+
+	/** The default maximum number of cached results. */
+	public static final int DEFAULT_SIZE = 100000;
+
+	/** The maximum total number of cached results. */
+	private final long capacity;
+
+	/** Cached results by query, in least recently used order. */
+	private final LinkedHashMap<String, Entry> entries;
+
+	/** The total number of cached results, plus one per entry. */
+	private long weight;
+
+	/** The generation of the index the cached results were computed from. */
+	private long generation;
+
+	/** Number of searches answered from the cache. */
+	private long hits;
+
+	/** Number of searches that had to be computed. */
+	private long misses;
+
+	/** Total time in nanoseconds the cached results took to compute on hits. */
+	private long saved;
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param capacity the maximum total number of cached results
+	 */
+	public QueryCache(long capacity) {
+		this.capacity = Math.max(1, capacity);
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.weight = 0;
+		this.generation = 0;
+		this.hits = 0;
+		this.misses = 0;
+		this.saved = 0;
+	}
+
+	/**
+	 * Returns the cached results of a search.
+	 *
+	 * @param query      the query
+	 * @param exact      whether the search is exact
+	 * @param count      the number of best results needed, or
+	 *                   {@link Integer#MAX_VALUE} for all of them
+	 * @param generation the current generation of the index
+	 * @return a copy of at most count best results, or {@code null} if they are
+	 *         not cached
+	 */
+	public synchronized ArrayList<InvertedIndex.Result> get(Query query, boolean exact, int count,
+			long generation) {
+		advance(generation);
+		Entry entry = entries.get(key(query, exact));
+		if (entry == null || !entry.covers(count)) {
+			misses++;
+			return null;
+		}
+		hits++;
+		saved += entry.cost;
+		return new ArrayList<>(entry.results.subList(0, Math.min(count, entry.results.size())));
+	}
+
+	/**
+	 * Caches the results of a search, evicting the least recently used queries
+	 * if the cache is full. Results larger than the whole cache are not cached.
+	 *
+	 * @param query      the query
+	 * @param exact      whether the search is exact
+	 * @param count      the number of best results that were computed, or
+	 *                   {@link Integer#MAX_VALUE} for all of them
+	 * @param generation the generation of the index the results were computed
+	 *                   from
+	 * @param results    the sorted results
+	 * @param cost       the time in nanoseconds it took to compute the results
+	 */
+	public synchronized void put(Query query, boolean exact, int count, long generation,
+			List<InvertedIndex.Result> results, long cost) {
+		advance(generation);
+		if (generation != this.generation || results.size() + 1 > capacity) {
+			return;
+		}
+
+		String key = key(query, exact);
+		Entry old = entries.get(key);
+		if (old != null) {
+			if (old.covers(count)) {
+				return;
+			}
+			entries.remove(key);
+			weight -= old.weight();
+		}
+
+		Entry entry = new Entry(List.copyOf(results), count, cost);
+		entries.put(key, entry);
+		weight += entry.weight();
+
+		Iterator<Entry> eldest = entries.values().iterator();
+		while (weight > capacity && eldest.hasNext()) {
+			weight -= eldest.next().weight();
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Returns the number of searches answered from the cache.
+	 *
+	 * @return the number of hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of searches that were not in the cache.
+	 *
+	 * @return the number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the share of searches answered from the cache.
+	 *
+	 * @return the hit ratio, between 0 and 1
+	 */
+	public synchronized double getHitRatio() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	/**
+	 * Returns the time the cached searches would have taken to compute.
+	 *
+	 * @return the time saved in milliseconds
+	 */
+	public synchronized double getSavedMillis() {
+		return saved / 1e6;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d hits, %d misses (%.1f%% hit ratio), %.1f ms saved, %d queries cached", hits,
+				misses, getHitRatio() * 100, getSavedMillis(), entries.size());
+	}
+
+	/**
+	 * Drops every cached result if the index has moved to a newer generation.
+	 *
+	 * @param generation the current generation of the index
+	 */
+	private void advance(long generation) {
+		if (generation > this.generation) {
+			entries.clear();
+			weight = 0;
+			this.generation = generation;
+		}
+	}
+
+	/**
+	 * Returns the cache key of a search. The clauses of a query are sorted, so
+	 * the same clauses always have the same key.
+	 *
+	 * @param query the query
+	 * @param exact whether the search is exact
+	 * @return the key
+	 */
+	private static String key(Query query, boolean exact) {
+		return (exact ? "exact:" : "partial:") + query;
+	}
+
+	/**
+	 * The cached results of a search.
+	 */
+	private static class Entry {
+
+		/** The best results, sorted. */
+		private final List<InvertedIndex.Result> results;
+
+		/** The number of best results that were asked for. */
+		private final int count;
+
+		/** The time in nanoseconds it took to compute the results. */
+		private final long cost;
+
+		/**
+		 * Creates an entry.
+		 *
+		 * @param results the sorted results
+		 * @param count   the number of best results that were asked for
+		 * @param cost    the time in nanoseconds it took to compute the results
+		 */
+		public Entry(List<InvertedIndex.Result> results, int count, long cost) {
+			this.results = results;
+			this.count = count;
+			this.cost = cost;
+		}
+
+		/**
+		 * Returns whether this entry holds the given number of best results.
+		 *
+		 * @param needed the number of best results needed
+		 * @return {@code true} if the entry holds that many results or every
+		 *         result of the search
+		 */
+		public boolean covers(int needed) {
+			return count >= needed || results.size() < count;
+		}
+
+		/**
+		 * Returns the size of this entry counted against the capacity.
+		 *
+		 * @return the number of results plus one
+		 */
+		public long weight() {
+			return results.size() + 1L;
+		}
+	}
+}
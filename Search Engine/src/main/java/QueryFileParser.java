@@ -5,7 +5,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 /**
  * Class responsible for parsing the queryfile and calling the searches
@@ -43,8 +42,8 @@ public class QueryFileParser implements QueryFileParserInterface {
 
 	@Override
 	public void parseQueryLine(String line, boolean exact) {
-		TreeSet<String> queryLine = TextFileStemmer.uniqueStems(line);
-		String query = String.join(" ", queryLine);
+		Query queryLine = Query.parse(line);
+		String query = queryLine.toString();
 
 		if (!query.isEmpty() && !results.containsKey(query)) {
 			this.results.put(query, this.index.search(queryLine, exact));
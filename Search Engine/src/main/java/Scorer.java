@@ -0,0 +1,90 @@
+/**
+ * Ranks the locations matching a query. Every stem found in a location scores
+ * on its own, times the weight of the stem, and the sum is turned into the
+ * score of the location by {@link #total(double, int)}. Searches only skip
+ * locations that cannot be among the best results if the scorer keeps to the
+ * contracts of {@link #total(double, int)} and {@link #bound(int, int)}.
+ *
+ * @see CountScorer
+ * @see Bm25Scorer
+ */
+public interface Scorer {
+
+	/**
+	 * Scores locations by the share of their words that match, the original
+	 * ranking
+	 */
+	Scorer COUNT = new CountScorer();
+
+	/**
+	 * Scores locations with BM25, weighing rare stems higher
+	 */
+	Scorer BM25 = new Bm25Scorer();
+
+	/**
+	 * Returns the name of the scorer
+	 *
+	 * @return the name
+	 */
+	String getName();
+
+	/**
+	 * Returns the weight of a stem, which multiplies what it scores
+	 *
+	 * @param frequency the number of locations the stem is found in
+	 * @param documents the number of locations in the index
+	 * @return the weight, not negative
+	 */
+	double weight(int frequency, int documents);
+
+	/**
+	 * Returns what a stem scores in a location, before its weight
+	 *
+	 * @param matches       the number of times the stem is found in the location
+	 * @param length        the number of words in the location
+	 * @param averageLength the average number of words in a location
+	 * @return the score of the stem
+	 */
+	double score(int matches, int length, double averageLength);
+
+	/**
+	 * Turns the sum of the weighted scores of the stems found in a location into
+	 * the score of the location. Must be linear in the sum, so that the score of
+	 * a location is the sum of what its stems add to it.
+	 *
+	 * @param sum    the sum of the weighted scores
+	 * @param length the number of words in the location
+	 * @return the score of the location
+	 */
+	double total(double sum, int length);
+
+	/**
+	 * Returns the most a stem found in a location can add to its score, before
+	 * its weight, whatever the average number of words in a location
+	 *
+	 * @param matches the number of times the stem is found in the location
+	 * @param length  the number of words in the location
+	 * @return at least {@code total(score(matches, length, averageLength), length)}
+	 */
+	double bound(int matches, int length);
+
+	/**
+	 * Returns the scorer with a name
+	 *
+	 * @param name the name, in any case
+	 * @return the scorer, or {@code null} if there is none with the name
+	 */
+	static Scorer forName(String name) {
+		if (name == null) {
+			return null;
+		}
+		switch (name.strip().toLowerCase()) {
+		case "count":
+			return COUNT;
+		case "bm25":
+			return BM25;
+		default:
+			return null;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.text.StringEscapeUtils;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * Stateless JSON search endpoint, answering a search in a single round trip:
+ *
+ * <pre>
+ * GET /api/search?q=apple+pie&amp;exact=false&amp;offset=0&amp;limit=10&amp;scorer=bm25&amp;explain=false
+ * </pre>
+ *
+ * Queries may hold quoted phrases, NEAR clauses and boolean operators (see
+ * {@link Query}). The response holds one page of results, best first, and
+ * whether more results follow. Partial searches also list the query prefixes
+ * whose expansion was truncated (see
+ * {@link InvertedIndex#setExpansionLimit(int)}). Results are ranked by the
+ * scorer named "count" or "bm25" (see {@link Scorer}), or by the scorer of the
+ * index if none is given. With explain set, the response also describes how
+ * the query was planned (see {@link InvertedIndex#explain(Query, boolean)}).
+ * Nothing is kept between requests, so any number of clients can search
+ * concurrently. Results are written to the response as they are formatted
+ * instead of being built up in memory first.
+ *
+ * @see SearchServlet
+ */
+public class SearchApiServlet extends HttpServlet {
+
+	/**
+	 * serial version?
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/** The number of results returned if no limit is given. */
+	public static final int DEFAULT_LIMIT = 10;
+
+	/** The largest number of results returned per request. */
+	public static final int MAX_LIMIT = 100;
+
+	/** The logger to use for this servlet. */
+	private static Logger log = Log.getRootLogger();
+
+	/** The index to search. */
+	private final ThreadSafeInvertedIndex index;
+
+	/**
+	 * Initializes the search endpoint.
+	 *
+	 * @param index the index to search
+	 */
+	public SearchApiServlet(ThreadSafeInvertedIndex index) {
+		super();
+		this.index = index;
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-store");
+
+		String query = request.getParameter("q");
+		int offset = getInteger(request, "offset", 0);
+		int limit = getInteger(request, "limit", DEFAULT_LIMIT);
+		if (query == null || query.isBlank()) {
+			error(response, "missing query parameter q");
+			return;
+		}
+		if (offset < 0 || limit < 0) {
+			error(response, "offset and limit must be non-negative integers");
+			return;
+		}
+		limit = Math.min(limit, MAX_LIMIT);
+		boolean exact = isTrue(request.getParameter("exact"));
+		String name = request.getParameter("scorer");
+		Scorer scorer = name == null || name.isBlank() ? index.getScorer() : Scorer.forName(name);
+		if (scorer == null) {
+			error(response, "scorer must be count or bm25");
+			return;
+		}
+
+		Query parsed = Query.parse(query);
+		// ask for one extra result to find out whether another page follows
+		ArrayList<InvertedIndex.Result> results = index.search(parsed, exact, offset, limit + 1, scorer);
+		boolean more = results.size() > limit;
+		log.debug("SearchApiServlet found " + results.size() + " results for " + query);
+
+		response.setStatus(HttpServletResponse.SC_OK);
+		PrintWriter out = response.getWriter();
+		out.write("{\"query\":\"");
+		out.write(StringEscapeUtils.escapeJson(query));
+		out.write("\",\"exact\":" + exact);
+		out.write(",\"offset\":" + offset);
+		out.write(",\"limit\":" + limit);
+		out.write(",\"scorer\":\"" + scorer.getName() + '"');
+		out.write(",\"more\":" + more);
+		if (!exact) {
+			// prefixes that only expanded to their most common stems
+			out.write(",\"truncated\":[");
+			boolean first = true;
+			for (String stem : parsed.getStems()) {
+				if (index.isTruncated(stem)) {
+					out.write(first ? "\"" : ",\"");
+					out.write(StringEscapeUtils.escapeJson(stem));
+					out.write('"');
+					first = false;
+				}
+			}
+			out.write(']');
+		}
+		if (isTrue(request.getParameter("explain"))) {
+			out.write(",\"plan\":\"");
+			out.write(StringEscapeUtils.escapeJson(index.explain(parsed, exact)));
+			out.write('"');
+		}
+		out.write(",\"results\":[");
+
+		DecimalFormat formatter = new DecimalFormat("0.00000000");
+		for (int i = 0; i < results.size() && i < limit; i++) {
+			InvertedIndex.Result result = results.get(i);
+			if (i > 0) {
+				out.write(',');
+			}
+			out.write("{\"where\":\"");
+			out.write(StringEscapeUtils.escapeJson(result.getWhere()));
+			out.write("\",\"count\":" + result.getCount());
+			out.write(",\"score\":" + formatter.format(result.getScore()));
+			out.write('}');
+		}
+		out.write("]}\n");
+		out.flush();
+	}
+
+	/**
+	 * Responds with a bad request error.
+	 *
+	 * @param response the response
+	 * @param message  the error message
+	 * @throws IOException if unable to write the response
+	 */
+	private static void error(HttpServletResponse response, String message) throws IOException {
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		PrintWriter out = response.getWriter();
+		out.write("{\"error\":\"" + StringEscapeUtils.escapeJson(message) + "\"}\n");
+		out.flush();
+	}
+
+	/**
+	 * Returns a request parameter as an integer.
+	 *
+	 * @param request      the request
+	 * @param name         the name of the parameter
+	 * @param defaultValue the value used if the parameter is missing
+	 * @return the value, or -1 if it is not an integer
+	 */
+	private static int getInteger(HttpServletRequest request, String name, int defaultValue) {
+		String value = request.getParameter(name);
+		if (value == null || value.isBlank()) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.strip());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns whether a flag parameter is set.
+	 *
+	 * @param value the value of the parameter, may be {@code null}
+	 * @return {@code true} for "true", "1", "yes" and "on"
+	 */
+	private static boolean isTrue(String value) {
+		if (value == null) {
+			return false;
+		}
+		switch (value.strip().toLowerCase()) {
+		case "true":
+		case "1":
+		case "yes":
+		case "on":
+			return true;
+		default:
+			return false;
+		}
+	}
+}
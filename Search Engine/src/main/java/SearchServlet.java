@@ -9,7 +9,6 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.TreeSet;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -109,24 +108,17 @@ public class SearchServlet extends HttpServlet {
 		response.setContentType("text/html");
 
 		String query = request.getParameter("query");
-		history.add(query);
+		// prevent cross site scripting, the query itself is parsed unescaped so
+		// quoted phrases keep their quotes
+		history.add(StringEscapeUtils.escapeHtml4(query));
 
 		if (request.getParameter("clear") != null) {
 			history.clear();
 		}
 
-		// prevent cross site scripting
-		query = StringEscapeUtils.escapeHtml4(query);
+		Query parsed = Query.parse(query);
 
-		TreeSet<String> querySet = TextFileStemmer.uniqueStems(query);
-
-		ArrayList<InvertedIndex.Result> results;
-
-		if (request.getParameter("exact") != null) {
-			results = index.exactSearch(querySet);
-		} else {
-			results = index.partialSearch(querySet);
-		}
+		ArrayList<InvertedIndex.Result> results = index.search(parsed, request.getParameter("exact") != null);
 
 		for (InvertedIndex.Result each : results) {
 			String formatted = "<p><a href=\"" + each.getWhere() + "\">" + each.getWhere() + "</a></p>";
@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.text.StringEscapeUtils;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * Autocomplete endpoint, suggesting the most common words of the index that
+ * complete the last word being typed:
+ *
+ * <pre>
+ * GET /suggest?prefix=apple+pi&amp;limit=5
+ * </pre>
+ *
+ * Suggestions come from a {@link SuggestionTrie} over the words of the index,
+ * so they are fast enough to be requested on every keystroke. The index only
+ * holds stems, so each stem is suggested as the word most often found for it,
+ * and a whole word that was typed suggests the word of its stem first. The
+ * tree is rebuilt when the index changes, but at most once per refresh
+ * interval, so a crawl that keeps changing the index does not rebuild it for
+ * every request. While one request rebuilds it, the others keep using the old
+ * tree instead of waiting.
+ *
+ * @see SearchApiServlet
+ */
+public class SuggestServlet extends HttpServlet {
+
+	/**
+	 * serial version?
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/** The minimum time in milliseconds between rebuilds of the tree. */
+	public static final long REFRESH_MILLIS = 1000;
+
+	/** The logger to use for this servlet. */
+	private static Logger log = Log.getRootLogger();
+
+	/** The index to suggest words from. */
+	private final ThreadSafeInvertedIndex index;
+
+	/** The tree built from the index, or {@code null} before the first request. */
+	private volatile Snapshot snapshot;
+
+	/** Whether a request is rebuilding the tree. */
+	private final AtomicBoolean rebuilding;
+
+	/**
+	 * Initializes the autocomplete endpoint.
+	 *
+	 * @param index the index to suggest words from
+	 */
+	public SuggestServlet(ThreadSafeInvertedIndex index) {
+		super();
+		this.index = index;
+		this.snapshot = null;
+		this.rebuilding = new AtomicBoolean(false);
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+
+		String prefix = request.getParameter("prefix");
+		int limit = SuggestionTrie.DEFAULT_TOP;
+		try {
+			String value = request.getParameter("limit");
+			if (value != null && !value.isBlank()) {
+				limit = Math.max(0, Math.min(SuggestionTrie.DEFAULT_TOP, Integer.parseInt(value.strip())));
+			}
+		} catch (NumberFormatException e) {
+			limit = SuggestionTrie.DEFAULT_TOP;
+		}
+		prefix = prefix == null ? "" : prefix;
+
+		// complete the last word, keeping the words before it
+		String cleaned = TextParser.clean(prefix);
+		int space = cleaned.lastIndexOf(' ') + 1;
+		String before = String.join(" ", TextParser.split(cleaned.substring(0, space)));
+		String word = cleaned.substring(space).strip();
+
+		Snapshot current = getSnapshot();
+		SuggestionTrie trie = current.trie;
+		List<String> suggestions = word.isEmpty() ? List.of() : trie.suggest(word, limit);
+
+		// a whole word may be found in the index under another word of its stem
+		String surface = word.isEmpty() ? null
+				: current.surfaces.get(new SnowballStemmer(TextFileStemmer.DEFAULT).stem(word).toString());
+		if (surface != null && limit > 0 && !suggestions.contains(surface)) {
+			suggestions = new ArrayList<>(suggestions);
+			suggestions.add(0, surface);
+			suggestions = suggestions.subList(0, Math.min(limit, suggestions.size()));
+		}
+
+		response.setStatus(HttpServletResponse.SC_OK);
+		PrintWriter out = response.getWriter();
+		out.write("{\"prefix\":\"");
+		out.write(StringEscapeUtils.escapeJson(prefix));
+		out.write("\",\"suggestions\":[");
+		for (int i = 0; i < suggestions.size(); i++) {
+			String suggestion = suggestions.get(i);
+			if (i > 0) {
+				out.write(',');
+			}
+			out.write("{\"word\":\"");
+			out.write(StringEscapeUtils.escapeJson(suggestion));
+			out.write("\",\"count\":" + trie.getFrequency(suggestion));
+			out.write(",\"completion\":\"");
+			out.write(StringEscapeUtils.escapeJson(before.isEmpty() ? suggestion : before + " " + suggestion));
+			out.write("\"}");
+		}
+		out.write("]}\n");
+		out.flush();
+	}
+
+	/**
+	 * Returns the tree for the current index, rebuilding it if the index changed
+	 * and the refresh interval has passed. Only the first request waits for the
+	 * tree to be built; later requests get the old tree while another request
+	 * rebuilds it.
+	 *
+	 * @return the tree and the word of each stem
+	 */
+	private Snapshot getSnapshot() {
+		long generation = index.getGeneration();
+		Snapshot current = snapshot;
+		if (current == null) {
+			synchronized (this) {
+				if (snapshot == null) {
+					snapshot = build(generation);
+				}
+				return snapshot;
+			}
+		}
+		if (current.generation == generation || !current.isExpired() || !rebuilding.compareAndSet(false, true)) {
+			return current;
+		}
+
+		try {
+			current = build(generation);
+			snapshot = current;
+			return current;
+		} finally {
+			rebuilding.set(false);
+		}
+	}
+
+	/**
+	 * Builds the tree from the words of the index.
+	 *
+	 * @param generation the generation of the index
+	 * @return the tree and the word of each stem
+	 */
+	private Snapshot build(long generation) {
+		long start = System.nanoTime();
+		Map<String, String> surfaces = index.getSurfaceWords();
+		HashMap<String, Integer> frequencies = new HashMap<>();
+		for (Map.Entry<String, Integer> stem : index.getDocumentFrequencies().entrySet()) {
+			frequencies.merge(surfaces.getOrDefault(stem.getKey(), stem.getKey()), stem.getValue(), Math::max);
+		}
+		Snapshot built = new Snapshot(new SuggestionTrie(frequencies, SuggestionTrie.DEFAULT_TOP), surfaces, generation);
+		log.debug("SuggestServlet indexed " + built.trie.size() + " words in " + (System.nanoTime() - start) / 1000000
+				+ " ms");
+		return built;
+	}
+
+	/**
+	 * A tree built from the index along with when it was built.
+	 */
+	private static class Snapshot {
+
+		/** The tree. */
+		private final SuggestionTrie trie;
+
+		/** The word suggested for each stem, by stem. */
+		private final Map<String, String> surfaces;
+
+		/** The generation of the index the tree was built from. */
+		private final long generation;
+
+		/** The time the tree was built, in milliseconds. */
+		private final long built;
+
+		/**
+		 * Creates a snapshot.
+		 *
+		 * @param trie       the tree
+		 * @param surfaces   the word suggested for each stem, by stem
+		 * @param generation the generation of the index the tree was built from
+		 */
+		public Snapshot(SuggestionTrie trie, Map<String, String> surfaces, long generation) {
+			this.trie = trie;
+			this.surfaces = surfaces;
+			this.generation = generation;
+			this.built = System.currentTimeMillis();
+		}
+
+		/**
+		 * Returns whether the refresh interval has passed since the tree was built.
+		 *
+		 * @return {@code true} if the tree may be rebuilt
+		 */
+		public boolean isExpired() {
+			return System.currentTimeMillis() - built >= REFRESH_MILLIS;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable prefix tree over the words of an index, answering which words
+ * start with a prefix. Every node stores its best completions (the words under
+ * it found in the most locations) when it is built, so a lookup only walks
+ * down the prefix, however many words start with it.
+ *
+ * @see SuggestServlet
+ */
+public class SuggestionTrie {
+
+	/** The default number of completions stored per node. */
+	public static final int DEFAULT_TOP = 10;
+
+	/** The words, in sorted order. */
+	private final String[] words;
+
+	/** The number of locations of each word. */
+	private final int[] frequencies;
+
+	/** The root of the tree. */
+	private final Node root;
+
+	/** Orders word numbers from most to least frequent, then alphabetically. */
+	private final Comparator<Integer> order;
+
+	/** The number of completions stored per node. */
+	private final int top;
+
+	/**
+	 * Builds the tree.
+	 *
+	 * @param frequencies the number of locations of each word
+	 * @param top         the number of completions stored per node
+	 */
+	public SuggestionTrie(Map<String, Integer> frequencies, int top) {
+		this.words = frequencies.keySet().toArray(new String[0]);
+		this.frequencies = new int[words.length];
+		Arrays.sort(words);
+		for (int i = 0; i < words.length; i++) {
+			this.frequencies[i] = frequencies.get(words[i]);
+		}
+		this.top = Math.max(1, top);
+		this.order = Comparator.comparingInt((Integer word) -> this.frequencies[word]).reversed()
+				.thenComparingInt(word -> word);
+		this.root = build(0, words.length, 0);
+	}
+
+	/**
+	 * Returns the most frequent words starting with a prefix.
+	 *
+	 * @param prefix the prefix
+	 * @param limit  the maximum number of words, at most the number stored per
+	 *               node
+	 * @return the words, most frequent first
+	 */
+	public List<String> suggest(String prefix, int limit) {
+		Node node = root;
+		for (int i = 0; i < prefix.length() && node != null; i++) {
+			node = node.child(prefix.charAt(i));
+		}
+
+		List<String> suggestions = new ArrayList<>();
+		if (node != null) {
+			for (int i = 0; i < node.best.length && i < limit; i++) {
+				suggestions.add(words[node.best[i]]);
+			}
+		}
+		return suggestions;
+	}
+
+	/**
+	 * Returns the number of locations of a word suggested by this tree.
+	 *
+	 * @param word the word
+	 * @return the number of locations, or 0 if the word is not in the tree
+	 */
+	public int getFrequency(String word) {
+		int i = Arrays.binarySearch(words, word);
+		return i < 0 ? 0 : frequencies[i];
+	}
+
+	/**
+	 * Returns the number of words in the tree.
+	 *
+	 * @return the number of words
+	 */
+	public int size() {
+		return words.length;
+	}
+
+	/**
+	 * Builds the node for the sorted words from start to end, which share their
+	 * first depth characters.
+	 *
+	 * @param start the first word
+	 * @param end   one past the last word
+	 * @param depth the length of the shared prefix
+	 * @return the node
+	 */
+	private Node build(int start, int end, int depth) {
+		ArrayList<Integer> candidates = new ArrayList<>();
+		if (start < end && words[start].length() == depth) {
+			// the word ending here sorts before the words continuing past it
+			candidates.add(start);
+			start++;
+		}
+
+		ArrayList<Character> labels = new ArrayList<>();
+		ArrayList<Node> children = new ArrayList<>();
+		int from = start;
+		while (from < end) {
+			char label = words[from].charAt(depth);
+			int to = from + 1;
+			while (to < end && words[to].charAt(depth) == label) {
+				to++;
+			}
+			Node child = build(from, to, depth + 1);
+			labels.add(label);
+			children.add(child);
+			for (int word : child.best) {
+				candidates.add(word);
+			}
+			from = to;
+		}
+
+		candidates.sort(order);
+		int[] best = new int[Math.min(top, candidates.size())];
+		for (int i = 0; i < best.length; i++) {
+			best[i] = candidates.get(i);
+		}
+
+		char[] chars = new char[labels.size()];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = labels.get(i);
+		}
+		return new Node(chars, children.toArray(new Node[0]), best);
+	}
+
+	/**
+	 * A node of the tree.
+	 */
+	private static class Node {
+
+		/** The character leading to each child, in sorted order. */
+		private final char[] labels;
+
+		/** The children. */
+		private final Node[] children;
+
+		/** The best completions of this node, as word numbers. */
+		private final int[] best;
+
+		/**
+		 * Creates a node.
+		 *
+		 * @param labels   the character leading to each child, in sorted order
+		 * @param children the children
+		 * @param best     the best completions of this node
+		 */
+		public Node(char[] labels, Node[] children, int[] best) {
+			this.labels = labels;
+			this.children = children;
+			this.best = best;
+		}
+
+		/**
+		 * Returns the child for a character.
+		 *
+		 * @param label the character
+		 * @return the child, or {@code null} if no word continues with it
+		 */
+		public Node child(char label) {
+			int i = Arrays.binarySearch(labels, label);
+			return i < 0 ? null : children[i];
+		}
+	}
+}
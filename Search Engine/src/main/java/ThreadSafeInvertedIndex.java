@@ -1,8 +1,12 @@
+import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Supplier;
 
 /** 
  * Class responsible for making the invertedindex thread safe using the
@@ -18,19 +22,59 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	private final SimpleReadWriteLock lock;
 
+	/**
+	 * number of changes made to the index, guarded by the lock
+	 */
+	private long generation;
+
+	/**
+	 * cache of search results, or {@code null} to always search the index
+	 */
+	private volatile QueryCache cache;
+
 	/**
 	 * Constructor
 	 */
 	public ThreadSafeInvertedIndex() {
 		super();
 		lock = new SimpleReadWriteLock();
+		generation = 0;
+	}
+
+	/**
+	 * Answers repeated searches from the given cache. Any change to the index
+	 * invalidates the cached results.
+	 * 
+	 * @param cache the cache, or {@code null} to always search the index
+	 */
+	public void setCache(QueryCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Returns the number of changes made to the index so far. Search results
+	 * only change when the generation does.
+	 * 
+	 * @return the generation of the index
+	 */
+	public long getGeneration() {
+		lock.readLock().lock();
+		try {
+			return generation;
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
+	/**
+	 * Returns a copy of the count map, since the index may change while the
+	 * caller iterates over it
+	 */
 	@Override
 	public Map<String, Integer> getCountMap() {
 		lock.readLock().lock();
 		try {
-			return super.getCountMap();
+			return Collections.unmodifiableMap(new TreeMap<>(super.getCountMap()));
 		} finally {
 			lock.readLock().unlock();
 		}
@@ -41,6 +85,7 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		lock.writeLock().lock();
 		try {
 			super.add(word, location, position);
+			generation++;
 		} finally {
 			lock.writeLock().unlock();
 		}
@@ -86,6 +131,36 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		}
 	}
 
+	@Override
+	public void addSurface(String stem, String word) {
+		lock.writeLock().lock();
+		try {
+			super.addSurface(stem, word);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public Map<String, String> getSurfaceWords() {
+		lock.readLock().lock();
+		try {
+			return super.getSurfaceWords();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Map<String, Integer> getDocumentFrequencies() {
+		lock.readLock().lock();
+		try {
+			return super.getDocumentFrequencies();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public int numPosition(String word, String location) {
 		lock.readLock().lock();
@@ -146,11 +221,66 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		}
 	}
 
+	@Override
+	public boolean remove(String location) {
+		lock.writeLock().lock();
+		try {
+			boolean removed = super.remove(location);
+			if (removed) {
+				generation++;
+			}
+			return removed;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void replace(String location, InvertedIndex local) {
+		lock.writeLock().lock();
+		try {
+			super.replace(location, local);
+			generation++;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void compact() {
+		lock.writeLock().lock();
+		try {
+			super.compact();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		lock.readLock().lock();
+		try {
+			super.write(out);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void toSegment(Path path) throws IOException {
+		lock.readLock().lock();
+		try {
+			super.toSegment(path);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public ArrayList<Result> exactSearch(Set<String> queries) {
 		lock.readLock().lock();
 		try {
-			return super.exactSearch(queries);
+			return cached(Query.of(queries), true, Integer.MAX_VALUE, () -> super.exactSearch(queries));
 		} finally {
 			lock.readLock().unlock();
 		}
@@ -160,17 +290,179 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	public ArrayList<Result> partialSearch(Set<String> queries) {
 		lock.readLock().lock();
 		try {
-			return super.partialSearch(queries);
+			return cached(Query.of(queries), false, Integer.MAX_VALUE, () -> super.partialSearch(queries));
 		} finally {
 			lock.readLock().unlock();
 		}
 	}
 
+	@Override
+	public ArrayList<Result> search(Set<String> queries, boolean exact, int offset, int limit) {
+		lock.readLock().lock();
+		try {
+			int count = (int) Math.min(Integer.MAX_VALUE, (long) Math.max(0, offset) + Math.max(0, limit));
+			ArrayList<Result> best = cached(Query.of(queries), exact, count,
+					() -> super.search(queries, exact, 0, count));
+			return new ArrayList<>(best.subList(Math.min(Math.max(0, offset), best.size()), best.size()));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public ArrayList<Result> search(Query query, boolean exact) {
+		lock.readLock().lock();
+		try {
+			return cached(query, exact, Integer.MAX_VALUE, () -> super.search(query, exact));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public ArrayList<Result> search(Query query, boolean exact, int offset, int limit) {
+		lock.readLock().lock();
+		try {
+			int count = (int) Math.min(Integer.MAX_VALUE, (long) Math.max(0, offset) + Math.max(0, limit));
+			ArrayList<Result> best = cached(query, exact, count, () -> super.search(query, exact, 0, count));
+			return new ArrayList<>(best.subList(Math.min(Math.max(0, offset), best.size()), best.size()));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public ArrayList<Result> search(Query query, boolean exact, int offset, int limit, Scorer scorer) {
+		lock.readLock().lock();
+		try {
+			if (!scorer.equals(super.getScorer())) {
+				// only results ranked by the scorer of the index are cached
+				return super.search(query, exact, offset, limit, scorer);
+			}
+			int count = (int) Math.min(Integer.MAX_VALUE, (long) Math.max(0, offset) + Math.max(0, limit));
+			ArrayList<Result> best = cached(query, exact, count, () -> super.search(query, exact, 0, count));
+			return new ArrayList<>(best.subList(Math.min(Math.max(0, offset), best.size()), best.size()));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public String explain(Query query, boolean exact) {
+		lock.readLock().lock();
+		try {
+			return super.explain(query, exact);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void setProximityBoost(double weight) {
+		lock.writeLock().lock();
+		try {
+			super.setProximityBoost(weight);
+			generation++;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void setScorer(Scorer scorer) {
+		lock.writeLock().lock();
+		try {
+			super.setScorer(scorer);
+			generation++;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void setImpactOrder(boolean enabled) {
+		lock.writeLock().lock();
+		try {
+			super.setImpactOrder(enabled);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void freeze() {
+		lock.writeLock().lock();
+		try {
+			super.freeze();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public Scorer getScorer() {
+		lock.readLock().lock();
+		try {
+			return super.getScorer();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void setExpansionLimit(int limit) {
+		lock.writeLock().lock();
+		try {
+			super.setExpansionLimit(limit);
+			generation++;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean isTruncated(String prefix) {
+		lock.readLock().lock();
+		try {
+			return super.isTruncated(prefix);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the cached results of a search, or runs the search and caches its
+	 * results. Must be called while holding the read lock, so the results match
+	 * the current generation.
+	 * 
+	 * @param query   the query
+	 * @param exact   whether the search is exact
+	 * @param count   the number of best results, or {@link Integer#MAX_VALUE}
+	 *                for all of them
+	 * @param search  runs the search
+	 * @return the sorted results
+	 */
+	private ArrayList<Result> cached(Query query, boolean exact, int count,
+			Supplier<ArrayList<Result>> search) {
+		QueryCache cache = this.cache;
+		if (cache == null) {
+			return search.get();
+		}
+		ArrayList<Result> results = cache.get(query, exact, count, generation);
+		if (results == null) {
+			long start = System.nanoTime();
+			results = search.get();
+			cache.put(query, exact, count, generation, results, System.nanoTime() - start);
+		}
+		return results;
+	}
+
 	@Override
 	public void merge(InvertedIndex local) {
 		lock.writeLock().lock();
 		try {
 			super.merge(local);
+			generation++;
 		} finally {
 			lock.writeLock().unlock();
 		}
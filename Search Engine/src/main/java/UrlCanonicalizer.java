@@ -0,0 +1,298 @@
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Rewrites URLs to a canonical form before they are checked against the seen
+ * URLs of a crawl, so that different spellings of the same page are fetched and
+ * indexed once. Unlike {@link LinkParser#normalize(URL)}, which only removes
+ * the fragment, the canonical form also:
+ *
+ * <ul>
+ * <li>lowercases the scheme and host and drops the default port,</li>
+ * <li>resolves {@code .} and {@code ..} path segments,</li>
+ * <li>drops directory index file names such as {@code index.html},</li>
+ * <li>drops tracking and session parameters from the query and path,</li>
+ * <li>sorts the remaining query parameters by name.</li>
+ * </ul>
+ *
+ * The rules can be extended with a rules file holding one rule per line, blank
+ * lines and lines starting with {@code #} being ignored:
+ *
+ * <pre>
+ * strip utm_*              drop query or path parameters matching the name
+ * index welcome.html       drop the directory index file name
+ * trailing-slash remove    drop the trailing slash of paths other than /
+ * </pre>
+ *
+ * Trailing slashes are kept by default, since relative links on a page are
+ * resolved against its URL and would resolve differently without the slash.
+ *
+ * @see WebCrawler
+ */
+public class UrlCanonicalizer {
+
+	/**
+	 * Initialize Logger
+	 */
+	private final static Logger log = LogManager.getRootLogger();
+
+	/** Names of tracking and session parameters dropped by default. */
+	private static final List<String> STRIP = List.of("utm_*", "gclid", "dclid", "fbclid", "msclkid", "yclid",
+			"igshid", "mc_cid", "mc_eid", "_ga", "_hsenc", "_hsmi", "jsessionid", "phpsessid", "sessionid", "sessid");
+
+	/** Directory index file names dropped by default. */
+	private static final List<String> INDEX = List.of("index.html", "index.htm", "index.php", "default.html",
+			"default.htm", "default.asp", "default.aspx");
+
+	/** Patterns of the parameter names to drop. */
+	private final List<Pattern> strip;
+
+	/** Directory index file names to drop, lowercase. */
+	private final List<String> index;
+
+	/** Whether to drop the trailing slash of paths. */
+	private boolean trailingSlash;
+
+	/** Number of URLs rewritten so far. */
+	private final AtomicLong rewritten;
+
+	/**
+	 * Creates a canonicalizer with the default rules.
+	 */
+	public UrlCanonicalizer() {
+		this.strip = new ArrayList<>();
+		this.index = new ArrayList<>(INDEX);
+		this.trailingSlash = false;
+		this.rewritten = new AtomicLong();
+		for (String name : STRIP) {
+			strip.add(glob(name));
+		}
+	}
+
+	/**
+	 * Creates a canonicalizer with the default rules plus the rules in the given
+	 * file. Rules that cannot be parsed are skipped with a warning.
+	 *
+	 * @param rules the rules file
+	 * @return the canonicalizer
+	 * @throws IOException if unable to read the file
+	 */
+	public static UrlCanonicalizer load(Path rules) throws IOException {
+		UrlCanonicalizer canonicalizer = new UrlCanonicalizer();
+		int number = 0;
+		for (String line : Files.readAllLines(rules, StandardCharsets.UTF_8)) {
+			number++;
+			line = line.strip();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+
+			String[] parts = line.split("\\s+");
+			if (parts.length == 2 && parts[0].equals("strip")) {
+				canonicalizer.strip.add(glob(parts[1]));
+			} else if (parts.length == 2 && parts[0].equals("index")) {
+				canonicalizer.index.add(parts[1].toLowerCase(Locale.ROOT));
+			} else if (parts.length == 2 && parts[0].equals("trailing-slash")) {
+				canonicalizer.trailingSlash = parts[1].equals("remove");
+			} else {
+				log.warn("Skipping invalid rule on line " + number + " of " + rules + ": " + line);
+			}
+		}
+		return canonicalizer;
+	}
+
+	/**
+	 * Returns the canonical form of a URL.
+	 *
+	 * @param url the normalized url
+	 * @return the canonical url, or the url itself if it is already canonical or
+	 *         cannot be parsed
+	 */
+	public URL canonicalize(URL url) {
+		URI uri;
+		try {
+			uri = url.toURI().normalize();
+		} catch (URISyntaxException e) {
+			return url;
+		}
+		if (uri.getHost() == null) {
+			return url;
+		}
+
+		String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+		StringBuilder canonical = new StringBuilder(scheme).append("://");
+		if (uri.getRawUserInfo() != null) {
+			canonical.append(uri.getRawUserInfo()).append('@');
+		}
+		canonical.append(uri.getHost().toLowerCase(Locale.ROOT));
+		int port = uri.getPort();
+		if (port != -1 && !(port == 80 && scheme.equals("http")) && !(port == 443 && scheme.equals("https"))) {
+			canonical.append(':').append(port);
+		}
+		canonical.append(path(uri.getRawPath()));
+		String query = query(uri.getRawQuery());
+		if (query != null) {
+			canonical.append('?').append(query);
+		}
+
+		String result = canonical.toString();
+		if (result.equals(url.toString())) {
+			return url;
+		}
+		try {
+			URL rewrite = new URL(result);
+			rewritten.incrementAndGet();
+			return rewrite;
+		} catch (MalformedURLException e) {
+			return url;
+		}
+	}
+
+	/**
+	 * Returns the canonical form of each URL, in the same order.
+	 *
+	 * @param urls the normalized urls
+	 * @return the canonical urls
+	 */
+	public List<URL> canonicalize(List<URL> urls) {
+		return urls.stream().map(this::canonicalize).collect(Collectors.toList());
+	}
+
+	/**
+	 * Returns the number of URLs rewritten so far.
+	 *
+	 * @return the number of URLs that were not already canonical
+	 */
+	public long getRewritten() {
+		return rewritten.get();
+	}
+
+	/**
+	 * Returns the canonical form of a path with its dot segments resolved.
+	 *
+	 * @param path the raw path, may be {@code null} or empty
+	 * @return the canonical path
+	 */
+	private String path(String path) {
+		if (path == null || path.isEmpty()) {
+			return "/";
+		}
+		// dot segments that climb above the root cannot be resolved, drop them
+		while (path.startsWith("/../")) {
+			path = path.substring(3);
+		}
+		if (path.equals("/..")) {
+			path = "/";
+		}
+
+		String[] segments = path.split("/", -1);
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = segment(segments[i]);
+		}
+		String last = segments[segments.length - 1].toLowerCase(Locale.ROOT);
+		if (index.contains(last)) {
+			segments[segments.length - 1] = "";
+		}
+
+		String canonical = String.join("/", segments);
+		if (trailingSlash && canonical.length() > 1 && canonical.endsWith("/")) {
+			canonical = canonical.substring(0, canonical.length() - 1);
+		}
+		return canonical;
+	}
+
+	/**
+	 * Drops the stripped parameters of a path segment, such as
+	 * {@code ;jsessionid=...}.
+	 *
+	 * @param segment the raw path segment
+	 * @return the segment without stripped parameters
+	 */
+	private String segment(String segment) {
+		int semicolon = segment.indexOf(';');
+		if (semicolon < 0) {
+			return segment;
+		}
+		StringBuilder kept = new StringBuilder(segment.substring(0, semicolon));
+		for (String parameter : segment.substring(semicolon + 1).split(";")) {
+			if (!parameter.isEmpty() && !isStripped(parameter)) {
+				kept.append(';').append(parameter);
+			}
+		}
+		return kept.toString();
+	}
+
+	/**
+	 * Drops the stripped parameters of a query and sorts the rest by name.
+	 * Parameters with the same name keep their order.
+	 *
+	 * @param query the raw query, may be {@code null}
+	 * @return the canonical query, or {@code null} if nothing is left
+	 */
+	private String query(String query) {
+		if (query == null) {
+			return null;
+		}
+		String canonical = Arrays.stream(query.split("&"))
+				.filter(parameter -> !parameter.isEmpty() && !isStripped(parameter))
+				.sorted(Comparator.comparing(UrlCanonicalizer::name))
+				.collect(Collectors.joining("&"));
+		return canonical.isEmpty() ? null : canonical;
+	}
+
+	/**
+	 * Returns whether a parameter is dropped by the strip rules.
+	 *
+	 * @param parameter the raw {@code name=value} parameter
+	 * @return {@code true} if the parameter is dropped
+	 */
+	private boolean isStripped(String parameter) {
+		String name = name(parameter);
+		for (Pattern pattern : strip) {
+			if (pattern.matcher(name).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the name of a parameter.
+	 *
+	 * @param parameter the raw {@code name=value} parameter
+	 * @return the name
+	 */
+	private static String name(String parameter) {
+		int equals = parameter.indexOf('=');
+		return equals < 0 ? parameter : parameter.substring(0, equals);
+	}
+
+	/**
+	 * Converts a parameter name with {@code *} wildcards to a case insensitive
+	 * pattern.
+	 *
+	 * @param glob the parameter name
+	 * @return the pattern
+	 */
+	private static Pattern glob(String glob) {
+		String regex = Arrays.stream(glob.split("\\*", -1)).map(Pattern::quote).collect(Collectors.joining(".*"));
+		return Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+	}
+}
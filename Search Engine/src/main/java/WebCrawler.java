@@ -1,7 +1,13 @@
 import java.io.IOException;
 import java.net.URL;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /** 
@@ -22,19 +28,72 @@ public class WebCrawler {
 	private final ThreadSafeInvertedIndex index;
 
 	/**
-	 * initialize the queue
+	 * initialize the queue (used for parsing and indexing fetched pages)
 	 */
 	public WorkQueue queue;
+
+	/**
+	 * queue used for fetching pages, may be the same as the parsing queue
+	 */
+	private final WorkQueue fetchQueue;
 	
 	/**
-	 * initialize the set that holds all of the links visited
+	 * the urls seen so far and the urls waiting to be fetched
+	 */
+	private final CrawlFrontier frontier;
+
+	/**
+	 * pool of keep-alive connections, or {@code null} to open a new connection
+	 * for every fetch
+	 */
+	private volatile HttpConnectionPool pool;
+
+	/**
+	 * maximum size of a page in bytes, larger pages are not downloaded
+	 */
+	private volatile long maxBytes;
+
+	/**
+	 * saves the state of the crawl every so many pages, or {@code null} to keep
+	 * the state only in memory
+	 */
+	private volatile CrawlCheckpoint checkpoint;
+
+	/**
+	 * conditional request headers for each fetched page, built from the "ETag"
+	 * and "Last-Modified" headers of its last response
+	 */
+	private final ConcurrentHashMap<String, Map<String, String>> validators;
+
+	/**
+	 * number of fetch tasks queued or running, kept to about the number of fetch
+	 * threads so urls wait in the frontier rather than as queued tasks
+	 */
+	private final AtomicInteger active;
+
+	/**
+	 * number of fetch, recrawl and parse tasks queued or running in either
+	 * queue. A task submits the tasks it creates before it is counted as done,
+	 * so the crawl is over once this reaches 0.
+	 */
+	private int working;
+
+	/**
+	 * lock guarding the working count, notified when it reaches 0
+	 */
+	private final Object idle;
+
+	/**
+	 * skips pages that are near-duplicates of pages already indexed, or
+	 * {@code null} to index every page
 	 */
-	private HashSet<URL> links;
+	private volatile NearDuplicateDetector duplicates;
 
 	/**
-	 * total number of URLs to crawl (including the seed URL)
+	 * rewrites urls to a canonical form before they are offered to the frontier,
+	 * or {@code null} to only use the normalized urls
 	 */
-	private int total;
+	private volatile UrlCanonicalizer canonicalizer;
 
 	/**
 	 * Constructor 
@@ -44,40 +103,258 @@ public class WebCrawler {
 	 * @param total total number of URLs to crawl
 	 */
 	public WebCrawler(ThreadSafeInvertedIndex index, WorkQueue queue, URL url, int total) {
+		this(index, queue, queue, total);
+	}
+
+	/**
+	 * Constructor that fetches pages on a separate (usually much wider) queue.
+	 * Fetch workers spend most of their time blocked on the network, so they only
+	 * download the page and hand the html off to the parsing queue, which should
+	 * be sized to the number of cores.
+	 * 
+	 * @param index      index data structure
+	 * @param queue      the work queue used for parsing and indexing
+	 * @param fetchQueue the work queue used for fetching pages
+	 * @param total      total number of URLs to crawl
+	 */
+	public WebCrawler(ThreadSafeInvertedIndex index, WorkQueue queue, WorkQueue fetchQueue, int total) {
+		this(index, queue, fetchQueue, new CrawlFrontier(total));
+	}
+
+	/**
+	 * Constructor that crawls the urls admitted by the given frontier.
+	 * 
+	 * @param index      index data structure
+	 * @param queue      the work queue used for parsing and indexing
+	 * @param fetchQueue the work queue used for fetching pages
+	 * @param frontier   the frontier that limits and orders the crawl
+	 */
+	public WebCrawler(ThreadSafeInvertedIndex index, WorkQueue queue, WorkQueue fetchQueue, CrawlFrontier frontier) {
 		this.index = index;
 		this.queue = queue;
-		this.total = total;
-		this.links = new HashSet<URL>();
+		this.fetchQueue = fetchQueue;
+		this.frontier = frontier;
+		this.maxBytes = HtmlFetcher.MAX_BYTES;
+		this.active = new AtomicInteger(0);
+		this.working = 0;
+		this.idle = new Object();
+		this.validators = new ConcurrentHashMap<>();
+	}
 
+	/**
+	 * Fetches pages over keep-alive connections from the given pool instead of
+	 * opening a new connection for every page.
+	 * 
+	 * @param pool the connection pool, or {@code null} to stop reusing connections
+	 */
+	public void setConnectionPool(HttpConnectionPool pool) {
+		this.pool = pool;
 	}
 
 	/**
-	 * crawl function called by the driver (starts the king task)
+	 * Sets the maximum size of a page in bytes. Larger pages are abandoned as
+	 * soon as their size is known and are not indexed.
+	 * 
+	 * @param maxBytes the maximum page size in bytes
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Saves the state of the crawl with the given checkpoint. Must be set before
+	 * the crawl starts, and the checkpoint must be for the same frontier.
+	 * 
+	 * @param checkpoint the checkpoint, or {@code null} to not save the crawl
+	 */
+	public void setCheckpoint(CrawlCheckpoint checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Skips pages that are near-duplicates of pages already indexed. Their links
+	 * are still followed. Must be set before the crawl starts.
+	 * 
+	 * @param duplicates the detector, or {@code null} to index every page
+	 */
+	public void setDuplicateDetector(NearDuplicateDetector duplicates) {
+		this.duplicates = duplicates;
+	}
+
+	/**
+	 * Rewrites the seed and every link to a canonical form before checking
+	 * whether it was seen, so different spellings of a page are fetched once.
+	 * Must be set before the crawl starts.
+	 * 
+	 * @param canonicalizer the canonicalizer, or {@code null} to only use the
+	 *                      normalized urls
+	 */
+	public void setCanonicalizer(UrlCanonicalizer canonicalizer) {
+		this.canonicalizer = canonicalizer;
+	}
+
+	/**
+	 * crawl function called by the driver (starts the king task). The seed url
+	 * is ignored if it was already seen by a resumed crawl, which continues with
+	 * the urls left in the frontier instead.
 	 * @param url seed url
 	 */
 	public void crawl(URL url) {
-		links.add(url);
-		queue.execute(new Task(url));
-		queue.finish();
+		frontier.offer(canonicalizer == null ? url : canonicalizer.canonicalize(url));
+		schedule();
+		finish();
+		index.freeze();
+	}
+
+	/**
+	 * Fetches every page in the index again with a conditional request, so only
+	 * pages that changed since they were last fetched are downloaded. Changed
+	 * pages replace their old postings in the index, pages that are gone (404
+	 * or 410) are removed, and unchanged pages (304) are skipped. Pages indexed
+	 * from a checkpoint have no validators and are always downloaded.
+	 * Replacements are not saved by the checkpoint. Only the text of changed
+	 * pages is indexed again; their links are not followed, so a recrawl never
+	 * grows the crawl.
+	 * 
+	 * @return a summary of how many pages were unchanged, changed and removed,
+	 *         and how many could not be fetched
+	 */
+	public String recrawl() {
+		List<String> locations = new ArrayList<>(index.getCountMap().keySet());
+		AtomicInteger[] counts = { new AtomicInteger(), new AtomicInteger(), new AtomicInteger(),
+				new AtomicInteger() };
+
+		for (String location : locations) {
+			try {
+				execute(fetchQueue, new RecrawlTask(new URL(location), counts));
+			} catch (MalformedURLException e) {
+				// not a crawled page, for example a file added with -path
+			}
+		}
+		finish();
+		index.freeze();
+		return String.format("%d unchanged, %d changed, %d removed, %d failed", counts[0].get(), counts[1].get(),
+				counts[2].get(), counts[3].get());
+	}
+
+	/**
+	 * Remembers the validators of a successful response, to be sent with the
+	 * next request for the same page.
+	 * 
+	 * @param url     the url that was fetched
+	 * @param headers the headers of the response
+	 */
+	private void remember(URL url, Map<String, List<String>> headers) {
+		Map<String, String> request = new HashMap<>();
+		String etag = HttpsFetcher.getHeader(headers, "ETag");
+		String modified = HttpsFetcher.getHeader(headers, "Last-Modified");
+		if (etag != null) {
+			request.put("If-None-Match", etag);
+		}
+		if (modified != null) {
+			request.put("If-Modified-Since", modified);
+		}
+		if (request.isEmpty()) {
+			validators.remove(url.toString());
+		} else {
+			validators.put(url.toString(), request);
+		}
+	}
+
+	/**
+	 * Returns the html of a response if it is indexable, and remembers its
+	 * validators.
+	 * 
+	 * @param url     the url that was fetched
+	 * @param headers the headers of the response, may be {@code null}
+	 * @return the html, or {@code null} if the response is not indexable
+	 */
+	private String getHtml(URL url, Map<String, List<String>> headers) {
+		if (headers == null || !HtmlFetcher.isIndexable(headers) || !headers.containsKey("Content")) {
+			return null;
+		}
+		remember(url, headers);
+		return headers.get("Content").get(0);
+	}
+
+	/**
+	 * Starts another fetch task if the frontier has urls waiting and fewer
+	 * fetch tasks than fetch threads are active. Each task schedules the next
+	 * one once it has taken its url, so the crawl ramps up to the full number of
+	 * threads without creating a task per discovered url.
+	 */
+	private void schedule() {
+		while (frontier.hasPending()) {
+			int count = active.get();
+			if (count >= fetchQueue.size()) {
+				return;
+			}
+			if (active.compareAndSet(count, count + 1)) {
+				execute(fetchQueue, new Task());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Queues a task, counting it as working until it has run.
+	 * 
+	 * @param target the queue to run the task in
+	 * @param task   the task
+	 */
+	private void execute(WorkQueue target, Runnable task) {
+		synchronized (idle) {
+			working++;
+		}
+		target.execute(() -> {
+			try {
+				task.run();
+			} finally {
+				synchronized (idle) {
+					if (--working == 0) {
+						idle.notifyAll();
+					}
+				}
+			}
+		});
 	}
 
 	/**
-	 * Add function that parses the given html and adds it to the index data
-	 * structure
+	 * Waits until both the fetch and parse queues are out of work. Fetch tasks
+	 * create parse tasks and parse tasks create fetch tasks, so the tasks of
+	 * both queues are counted together; checking each queue on its own could
+	 * miss a task handed from one to the other in between.
+	 */
+	private void finish() {
+		synchronized (idle) {
+			while (working > 0) {
+				try {
+					idle.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add function that stems the parsed words of a page and adds them to the
+	 * index data structure
 	 * 
-	 * @param url   location
-	 * @param html  the content
-	 * @param index data structure
+	 * @param url        location
+	 * @param parsedLine the parsed words of the page
+	 * @param index      data structure
 	 * @throws IOException throws exception if an IO error occurs
 	 */
-	private void addHtmlToIndex(String url, String html, ThreadSafeInvertedIndex index) throws IOException {
+	private void addHtmlToIndex(String url, String[] parsedLine, ThreadSafeInvertedIndex index) throws IOException {
 		SnowballStemmer stemmer = new SnowballStemmer(TextFileStemmer.DEFAULT);
 		int counter = 1;
-		String[] parsedLine = TextParser.parse(html);
 		
 		for (String word : parsedLine) {
-			word = stemmer.stem(word).toString();
-			index.add(word, url, counter);
+			String stem = stemmer.stem(word).toString();
+			index.add(stem, url, counter);
+			index.addSurface(stem, word);
 			counter++;
 		}
 	}
@@ -90,33 +367,41 @@ public class WebCrawler {
 	 */
 	public String parse(URL url) {
 		//redirects 3 to avoid infinite crawl
-		String fetchedHtml = HtmlFetcher.fetch(url, 3);
+		return parse(url, HtmlFetcher.fetch(url, 3, pool, maxBytes));
+	}
+
+	/**
+	 * Cleans and parses already fetched html (gets the links)
+	 * 
+	 * @param url         the url the html was fetched from
+	 * @param fetchedHtml the fetched html, may be {@code null}
+	 * @return String
+	 */
+	public String parse(URL url, String fetchedHtml) {
 		if (fetchedHtml == null) {
 			return "";
 		} else {
-			fetchedHtml = HtmlCleaner.stripBlockElements(fetchedHtml);
-			ArrayList<URL> urls = LinkParser.getValidLinks(url, fetchedHtml);
-			fetchedHtml = HtmlCleaner.stripHtml(fetchedHtml);
-			traverseUrls(urls); 
-			return fetchedHtml;
+			HtmlScanner scanner = new HtmlScanner(url, fetchedHtml);
+			traverseUrls(url, scanner.getLinks());
+			return scanner.getText();
 		}
 	}
 	
 	/**
-	 * Helper method for parse. Traverses the given url list and checks the links
-	 * data structure to see if each of the urls have been visited. If all
-	 * conditions pass, executes a mini-task
+	 * Helper method for parse. Offers each of the given urls to the frontier,
+	 * which queues it only if it has not been seen and the crawl limit has not
+	 * been reached, then makes sure a mini-task is running to fetch them.
 	 * 
+	 * @param page the page the urls were found on
 	 * @param urls the list of valid links
 	 */
-	public void traverseUrls(ArrayList<URL> urls) {
-		for (URL each : urls) {
-			if (!links.contains(each)) {
-				if (links.size() < total) {
-					links.add(each);
-					queue.execute(new Task(each));
-				}
-			}
+	public void traverseUrls(URL page, List<URL> urls) {
+		if (canonicalizer != null) {
+			urls = canonicalizer.canonicalize(urls);
+		}
+		int queued = checkpoint == null ? frontier.offer(page, urls) : checkpoint.offer(page, urls);
+		if (queued > 0) {
+			schedule();
 		}
 	}
 
@@ -127,29 +412,170 @@ public class WebCrawler {
 	 */
 	private class Task implements Runnable {
 
+		@Override
+		public void run() {
+			try {
+				URL url = checkpoint == null ? frontier.poll() : checkpoint.poll();
+				if (url == null) {
+					return;
+				}
+				// let another task take the next url while this one fetches
+				schedule();
+
+				//redirects 3 to avoid infinite crawl
+				String html;
+				try {
+					html = getHtml(url, HtmlFetcher.fetchResponse(url, 3, pool, maxBytes, Map.of()));
+				} finally {
+					frontier.done(url);
+				}
+				if (fetchQueue == queue) {
+					new ParseTask(url, html).run();
+				} else if (html != null) {
+					execute(queue, new ParseTask(url, html));
+				} else if (checkpoint != null) {
+					checkpoint.complete(url, null, index);
+				}
+			} finally {
+				active.decrementAndGet();
+				schedule();
+			}
+		}
+	}
+
+	/**
+	 * Task class for the work queue, fetches a page again if it changed
+	 * @author stephen
+	 *
+	 */
+	private class RecrawlTask implements Runnable {
+
 		/**
-		 * url being passed in
+		 * url of the indexed page
 		 */
 		private final URL url;
 
 		/**
-		 * Constructor for the task class
-		 * @param url the url 
+		 * number of pages unchanged, changed, removed and failed so far
+		 */
+		private final AtomicInteger[] counts;
+
+		/**
+		 * Constructor for the recrawl task class
+		 * @param url    the url of the indexed page
+		 * @param counts number of pages unchanged, changed, removed and failed so far
 		 */
-		public Task(URL url) {
+		public RecrawlTask(URL url, AtomicInteger[] counts) {
 			this.url = url;
+			this.counts = counts;
 		}
 
 		@Override
 		public void run() {
-			String fetch = parse(url);
+			Map<String, String> request = validators.getOrDefault(url.toString(), Map.of());
+			Map<String, List<String>> headers = HtmlFetcher.fetchResponse(url, 3, pool, maxBytes, request);
+			if (headers == null) {
+				counts[3].incrementAndGet();
+				return;
+			}
+
+			int status = HtmlFetcher.getStatusCode(headers);
+			String html = getHtml(url, headers);
+			if (status == 304) {
+				counts[0].incrementAndGet();
+			} else if (status == 404 || status == 410) {
+				index.remove(url.toString());
+				validators.remove(url.toString());
+				if (duplicates != null) {
+					duplicates.remove(url.toString());
+				}
+				counts[2].incrementAndGet();
+			} else if (html != null) {
+				counts[1].incrementAndGet();
+				if (fetchQueue == queue) {
+					new ParseTask(url, html, true).run();
+				} else {
+					execute(queue, new ParseTask(url, html, true));
+				}
+			} else {
+				// an error or a page that is no longer html, keep the old postings
+				counts[3].incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Task class for the parsing work queue, cleans and indexes a fetched page
+	 * @author stephen
+	 *
+	 */
+	private class ParseTask implements Runnable {
+
+		/**
+		 * url the html was fetched from
+		 */
+		private final URL url;
+
+		/**
+		 * the fetched html
+		 */
+		private final String html;
+
+		/**
+		 * whether the page replaces an older version already in the index
+		 */
+		private final boolean replace;
+
+		/**
+		 * Constructor for the parse task class
+		 * @param url  the url
+		 * @param html the fetched html
+		 */
+		public ParseTask(URL url, String html) {
+			this(url, html, false);
+		}
+
+		/**
+		 * Constructor for the parse task class
+		 * @param url     the url
+		 * @param html    the fetched html
+		 * @param replace whether the page replaces an older version in the index
+		 */
+		public ParseTask(URL url, String html, boolean replace) {
+			this.url = url;
+			this.html = html;
+			this.replace = replace;
+		}
+
+		@Override
+		public void run() {
+			// a replaced page was crawled already, so its links are not offered again
+			String fetch = replace ? new HtmlScanner(url, html).getText() : parse(url, html);
+			String[] words = TextParser.parse(fetch);
+			if (duplicates != null && duplicates.add(url.toString(), words) != null) {
+				// skip stemming and merging a page whose content is already indexed
+				duplicates.skipped(html.getBytes(StandardCharsets.UTF_8).length, words.length);
+				if (replace) {
+					index.remove(url.toString());
+				} else if (checkpoint != null) {
+					checkpoint.complete(url, null, index);
+				}
+				return;
+			}
+
 			ThreadSafeInvertedIndex local = new ThreadSafeInvertedIndex(); 
 			try {
-				addHtmlToIndex(url.toString(), fetch, local);
+				addHtmlToIndex(url.toString(), words, local);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
-			index.merge(local);
+			if (replace) {
+				index.replace(url.toString(), local);
+			} else if (checkpoint == null) {
+				index.merge(local);
+			} else {
+				checkpoint.complete(url, local, index);
+			}
 		}
 	}
 }
@@ -0,0 +1,198 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that searches returning one page of results, which skip locations
+ * that cannot be among the best ones, return the same page as sorting every
+ * result, including after locations were removed.
+ */
+public class InvertedIndexSearchTest {
+
+	/** The number of random queries searched for each scorer. */
+	private static final int QUERIES = 600;
+
+	/** The largest difference allowed between two scores of the same result. */
+	private static final double EPSILON = 1e-9;
+
+	/**
+	 * Pages ranked by count match the sorted results.
+	 */
+	@Test
+	public void testCountParity() {
+		assertParity(Scorer.COUNT, false, false);
+	}
+
+	/**
+	 * Pages ranked by BM25 match the sorted results.
+	 */
+	@Test
+	public void testBm25Parity() {
+		assertParity(Scorer.BM25, false, false);
+	}
+
+	/**
+	 * Pages ranked by count from impact ordered postings match the sorted
+	 * results.
+	 */
+	@Test
+	public void testCountImpactParity() {
+		assertParity(Scorer.COUNT, true, false);
+	}
+
+	/**
+	 * Pages ranked by BM25 from impact ordered postings match the sorted
+	 * results.
+	 */
+	@Test
+	public void testBm25ImpactParity() {
+		assertParity(Scorer.BM25, true, false);
+	}
+
+	/**
+	 * Pages ranked by BM25 from impact ordered postings that were rebuilt after
+	 * a batch of updates match the sorted results.
+	 */
+	@Test
+	public void testBm25ImpactParityAfterFreeze() {
+		assertParity(Scorer.BM25, true, true);
+	}
+
+	/**
+	 * BM25 never scores a result below zero, even for a stem whose removed
+	 * locations have not been purged yet.
+	 */
+	@Test
+	public void testBm25NotNegativeAfterRemove() {
+		InvertedIndex index = new InvertedIndex();
+		index.setScorer(Scorer.BM25);
+		for (int i = 0; i < 20; i++) {
+			index.add("common", "doc" + i, 1);
+		}
+		index.add("rare", "doc0", 2);
+		// too few to purge, so the stem keeps postings in more locations than are left
+		for (int i = 1; i < 5; i++) {
+			index.remove("doc" + i);
+		}
+
+		for (InvertedIndex.Result result : index.search(Query.parse("common"), true)) {
+			assertTrue(result.getScore() >= 0, result.getWhere() + " scored " + result.getScore());
+		}
+	}
+
+	/**
+	 * Searches random queries in a random index with removed locations, and
+	 * checks every page against the sorted results.
+	 *
+	 * @param scorer  the scorer
+	 * @param impact  whether to keep the postings ordered by impact
+	 * @param updated whether to update the index after ordering the postings,
+	 *                and freeze it again
+	 */
+	private static void assertParity(Scorer scorer, boolean impact, boolean updated) {
+		Random random = new Random(49);
+		InvertedIndex index = build(random);
+		index.setScorer(scorer);
+		index.setImpactOrder(impact);
+		if (updated) {
+			for (int i = 0; i < 30; i++) {
+				index.remove("doc" + random.nextInt(300));
+				index.add(word(random, false), "new" + i, 1 + random.nextInt(5));
+			}
+			index.freeze();
+		}
+
+		for (int i = 0; i < QUERIES; i++) {
+			StringBuilder text = new StringBuilder();
+			int words = 1 + random.nextInt(3);
+			for (int j = 0; j < words; j++) {
+				text.append(' ').append(word(random, random.nextBoolean()));
+			}
+			Query query = Query.parse(text.toString().strip());
+			boolean exact = random.nextBoolean();
+			int offset = random.nextInt(4);
+			int limit = 1 + random.nextInt(10);
+
+			List<InvertedIndex.Result> all = index.search(query, exact);
+			List<InvertedIndex.Result> page = index.search(query, exact, offset, limit);
+			List<InvertedIndex.Result> expected = all.subList(Math.min(offset, all.size()),
+					Math.min(offset + limit, all.size()));
+
+			String message = scorer + " " + (exact ? "exact" : "partial") + " [" + query + "] " + offset + "+" + limit;
+			assertEquals(expected.size(), page.size(), message);
+			for (int j = 0; j < page.size(); j++) {
+				assertEquals(expected.get(j).getScore(), page.get(j).getScore(), EPSILON, message);
+				assertTrue(page.get(j).getScore() >= 0, message);
+			}
+			for (InvertedIndex.Result result : page) {
+				assertTrue(contains(all, result), message + " returned " + result.getWhere());
+			}
+		}
+	}
+
+	/**
+	 * Builds an index of random documents over a small vocabulary, some of
+	 * them removed and some of those added again. Too few are removed for
+	 * their postings to be purged, so common stems are found in more
+	 * locations than are left.
+	 *
+	 * @param random the random numbers
+	 * @return the index
+	 */
+	private static InvertedIndex build(Random random) {
+		InvertedIndex index = new InvertedIndex();
+		List<String> removed = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			String location = "doc" + i;
+			int length = 10 + random.nextInt(40);
+			for (int position = 1; position <= length; position++) {
+				index.add(word(random, false), location, position);
+			}
+			if (random.nextInt(5) == 0) {
+				removed.add(location);
+			}
+		}
+		for (String location : removed) {
+			index.remove(location);
+		}
+		for (int i = 0; i < removed.size(); i += 3) {
+			index.add(word(random, false), removed.get(i), 1);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns a random word, common words being much more likely than rare ones.
+	 *
+	 * @param random the random numbers
+	 * @param prefix whether to return only the start of the word
+	 * @return the word
+	 */
+	private static String word(Random random, boolean prefix) {
+		int rank = (int) Math.floor(Math.pow(random.nextDouble(), 3) * 60);
+		String word = (char) ('a' + rank % 6) + "" + (char) ('a' + rank / 6 % 10) + "x" + rank;
+		return prefix ? word.substring(0, 1 + random.nextInt(2)) : word;
+	}
+
+	/**
+	 * Returns whether the results hold a result for the same location with the
+	 * same score.
+	 *
+	 * @param results the results
+	 * @param result  the result to look for
+	 * @return {@code true} if the results hold the result
+	 */
+	private static boolean contains(List<InvertedIndex.Result> results, InvertedIndex.Result result) {
+		for (InvertedIndex.Result other : results) {
+			if (other.getWhere().equals(result.getWhere())) {
+				return Math.abs(other.getScore() - result.getScore()) <= EPSILON;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,74 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that query lines without quotes or operators give the same stems as
+ * {@link TextFileStemmer#uniqueStems(String)}, and that quotes and operators
+ * are parsed when they form a query.
+ */
+public class QueryTest {
+
+	/**
+	 * Asserts that a line parses to its plain stems.
+	 *
+	 * @param line the query line
+	 */
+	private static void assertPlain(String line) {
+		assertEquals(String.join(" ", TextFileStemmer.uniqueStems(line)), Query.parse(line).toString(), line);
+	}
+
+	/**
+	 * Plain words give the plain stems.
+	 */
+	@Test
+	public void testPlainWords() {
+		assertPlain("Apple pie, with apples");
+		assertPlain("  leading and trailing  ");
+		assertPlain("");
+	}
+
+	/**
+	 * Words separated by a non-breaking or other Unicode space are split like
+	 * {@link TextParser#split(String)} splits them, not made into a phrase.
+	 */
+	@Test
+	public void testUnicodeSpaces() {
+		assertPlain("caf\u00e9\u00a0latte");
+		assertPlain("apple pie\u0085tart");
+	}
+
+	/**
+	 * Parentheses inside a word and operators without the clauses they need are
+	 * not syntax, so the line gives the stems of all its words.
+	 */
+	@Test
+	public void testInvalidOperators() {
+		assertPlain("foo(bar)");
+		assertPlain("NOT");
+		assertPlain("OR");
+		assertPlain("apple AND");
+		assertPlain("(apple OR pie");
+		assertPlain("apple NEAR/3");
+		assertPlain("123 AND apple");
+	}
+
+	/**
+	 * Operators and parentheses that form a query are parsed.
+	 */
+	@Test
+	public void testOperators() {
+		assertEquals("appl AND pie", Query.parse("Apple AND pie").toString());
+		assertEquals("NOT crumbl AND (appl OR pear) AND pie",
+				Query.parse("(apple OR pear) AND pie NOT crumble").toString());
+		assertEquals("appl NEAR/3 pie", Query.parse("apple NEAR/3 pie").toString());
+	}
+
+	/**
+	 * Quotes make a phrase.
+	 */
+	@Test
+	public void testPhrase() {
+		assertEquals("\"appl pie\" recip", Query.parse("\"apple pie\" recipe").toString());
+	}
+}